@@ -0,0 +1,290 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.applist;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在后台线程查询可启动的应用并读取名称，按批回调到主线程。
+ * 再次调用{@link #load}或调用{@link #cancel}会放弃正在进行的加载，旧的批次不会再回调。
+ * 名称和缩小的图标按包的更新时间、版本号和语言缓存在数据库中，未变化的应用不再读取apk资源；
+ * 新安装或更新过的应用在列表回调完成后再写回缓存。
+ * 应用列表取自共用的{@link PackageSnapshot}，创建时持有，{@link #shutdown}时释放
+ */
+public final class AppListLoader {
+
+  private static final int BATCH_SIZE = 32;
+  private static final long BATCH_INTERVAL_MS = 100;
+
+  public static final class Entry {
+    public final String packageName;
+    public final String appName;
+    public final boolean isSystemApp;
+
+    Entry(String packageName, String appName, boolean isSystemApp) {
+      this.packageName = packageName;
+      this.appName = appName;
+      this.isSystemApp = isSystemApp;
+    }
+  }
+
+  /**
+   * 缓存的应用名称和图标，更新时间、版本号或语言不一致时失效
+   */
+  public static final class Meta {
+    public final String packageName;
+    public final long updateTime;
+    public final long versionCode;
+    public final String locale;
+    public final String label;
+    /**
+     * PNG，可为null
+     */
+    public final byte[] icon;
+
+    public Meta(String packageName, long updateTime, long versionCode, String locale, String label, byte[] icon) {
+      this.packageName = packageName;
+      this.updateTime = updateTime;
+      this.versionCode = versionCode;
+      this.locale = locale;
+      this.label = label;
+      this.icon = icon;
+    }
+
+    boolean matches(PackageInfo info, String locale) {
+      return updateTime == info.lastUpdateTime && versionCode == versionCode(info) && this.locale.equals(locale);
+    }
+  }
+
+  /**
+   * 由各模块的数据库实现，在后台线程调用
+   */
+  public interface MetaStore {
+    Map<String, Meta> loadAppMeta();
+
+    void saveAppMeta(Collection<Meta> changed, Collection<String> removed);
+  }
+
+  public interface Listener {
+    /**
+     * 在后台线程调用，先于查询，用于读取数据库等耗时准备
+     */
+    void onPrepare();
+
+    void onBatch(List<Entry> batch);
+
+    void onFinish(int count);
+
+    void onError(String message);
+  }
+
+  private final PackageManager pm;
+  private final String selfPackage;
+  private final MetaStore store;
+  private final IconLoader iconLoader;
+  private final PackageSnapshot snapshot;
+  private boolean released;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final AtomicInteger generation = new AtomicInteger();
+
+  public AppListLoader(Context context, MetaStore store) {
+    pm = context.getPackageManager();
+    selfPackage = context.getPackageName();
+    this.store = store;
+    iconLoader = IconLoader.get(context);
+    snapshot = PackageSnapshot.acquire(context);
+  }
+
+  /**
+   * @param exclude 不出现在列表中的包，可为null
+   */
+  public void load(boolean showSystemApps, String exclude, Listener listener) {
+    int token = generation.incrementAndGet();
+    executor.execute(() -> run(token, showSystemApps, exclude, listener));
+  }
+
+  public void cancel() {
+    generation.incrementAndGet();
+  }
+
+  public void shutdown() {
+    cancel();
+    executor.shutdownNow();
+    if (!released) {
+      released = true;
+      PackageSnapshot.release();
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  static long versionCode(PackageInfo info) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+      return info.getLongVersionCode();
+    return info.versionCode;
+  }
+
+  private boolean isCancelled(int token) {
+    return generation.get() != token;
+  }
+
+  private void post(int token, Runnable action) {
+    mainHandler.post(() -> {
+      if (!isCancelled(token))
+        action.run();
+    });
+  }
+
+  private void run(int token, boolean showSystemApps, String exclude, Listener listener) {
+    if (isCancelled(token))
+      return;
+    listener.onPrepare();
+    List<PackageSnapshot.App> apps;
+    try {
+      apps = snapshot.refresh();
+    } catch (SecurityException e) {
+      post(token, () -> listener.onError("无法获取应用列表: 权限不足"));
+      return;
+    }
+    if (apps.isEmpty()) {
+      post(token, () -> listener.onError("未找到可显示的应用"));
+      return;
+    }
+    String locale = Locale.getDefault().toLanguageTag();
+    // 快照中的应用都已有名称时不再读取缓存
+    Map<String, Meta> cached = null;
+    Map<String, PackageInfo> installed = null;
+    Map<String, ApplicationInfo> changed = new LinkedHashMap<>();
+    Map<String, String> changedLabels = new HashMap<>();
+    List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+    long lastPost = System.currentTimeMillis();
+    int count = 0;
+    for (PackageSnapshot.App app : apps) {
+      if (isCancelled(token))
+        return;
+      String pkg = app.packageName;
+      if (selfPackage.equals(pkg) || pkg.equals(exclude)) continue;
+
+      if (!showSystemApps && app.isSystemApp) continue;
+
+      String appName = app.label;
+      if (appName == null) {
+        if (cached == null) {
+          cached = store.loadAppMeta();
+          installed = installedPackages();
+        }
+        PackageInfo packageInfo = installed.get(pkg);
+        Meta meta = cached.get(pkg);
+        if (packageInfo != null && meta != null && meta.matches(packageInfo, locale)) {
+          appName = meta.label;
+          if (meta.icon != null)
+            iconLoader.seed(pkg, meta.icon);
+        } else {
+          CharSequence label = app.info.loadLabel(pm);
+          appName = label != null ? label.toString() : pkg;
+          if (packageInfo != null) {
+            changed.put(pkg, app.appInfo);
+            changedLabels.put(pkg, appName);
+          }
+        }
+        app.label = appName;
+      }
+      batch.add(new Entry(pkg, appName, app.isSystemApp));
+      count++;
+      long now = System.currentTimeMillis();
+      if (batch.size() >= BATCH_SIZE || now - lastPost >= BATCH_INTERVAL_MS) {
+        List<Entry> ready = batch;
+        post(token, () -> listener.onBatch(ready));
+        batch = new ArrayList<>(BATCH_SIZE);
+        lastPost = now;
+      }
+    }
+    List<Entry> ready = batch;
+    int total = count;
+    post(token, () -> {
+      if (!ready.isEmpty())
+        listener.onBatch(ready);
+      listener.onFinish(total);
+    });
+    if (cached == null)
+      return;
+    List<String> removed = new ArrayList<>();
+    if (!installed.isEmpty()) {
+      for (String pkg : cached.keySet()) {
+        if (!installed.containsKey(pkg))
+          removed.add(pkg);
+      }
+    }
+    refreshMeta(token, locale, installed, changed, changedLabels, removed);
+  }
+
+  private Map<String, PackageInfo> installedPackages() {
+    Map<String, PackageInfo> installed = new HashMap<>();
+    try {
+      for (PackageInfo info : pm.getInstalledPackages(0))
+        installed.put(info.packageName, info);
+    } catch (RuntimeException e) {
+      // 拿不到更新时间时不使用缓存
+    }
+    return installed;
+  }
+
+  /**
+   * 列表已显示后再为变化的应用生成图标，一次事务写回。被取消时保存已经生成的部分
+   */
+  private void refreshMeta(int token, String locale, Map<String, PackageInfo> installed,
+                           Map<String, ApplicationInfo> changed, Map<String, String> labels, List<String> removed) {
+    List<Meta> metas = new ArrayList<>(changed.size());
+    int size = iconLoader.defaultSize();
+    for (Map.Entry<String, ApplicationInfo> entry : changed.entrySet()) {
+      if (isCancelled(token))
+        break;
+      String pkg = entry.getKey();
+      PackageInfo packageInfo = installed.get(pkg);
+      byte[] icon = null;
+      try {
+        Bitmap bitmap = IconLoader.render(pm.getApplicationIcon(entry.getValue()), size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        icon = out.toByteArray();
+      } catch (RuntimeException e) {
+        // 图标读取失败时只缓存名称
+      }
+      metas.add(new Meta(pkg, packageInfo.lastUpdateTime, versionCode(packageInfo), locale, labels.get(pkg), icon));
+    }
+    if (!metas.isEmpty() || !removed.isEmpty())
+      store.saveAppMeta(metas, removed);
+  }
+}
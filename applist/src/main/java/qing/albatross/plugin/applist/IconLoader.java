@@ -0,0 +1,163 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.applist;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 列表中应用图标的加载器，进程内共用。
+ * 图标在后台线程按ImageView的尺寸缩放成Bitmap，放入按字节数限制的LRU缓存；
+ * 同一图标正在加载时不会重复解码。ImageView被复用时用tag判断，迟到的结果不会显示到别的行。
+ * 数据库中缓存的图标通过{@link #seed}提供，默认尺寸的图标优先从中解码
+ */
+public final class IconLoader {
+
+  private static IconLoader instance;
+
+  private final PackageManager pm;
+  private final int defaultSize;
+  private final LruCache<String, Bitmap> cache;
+  /** 只在主线程访问 */
+  private final Map<String, List<ImageView>> pending = new HashMap<>();
+  /**
+   * 包名 -> 默认尺寸的PNG，解码后移除
+   */
+  private final Map<String, byte[]> seeds = new ConcurrentHashMap<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  private IconLoader(Context context) {
+    pm = context.getPackageManager();
+    defaultSize = Math.round(48 * context.getResources().getDisplayMetrics().density);
+    int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 16 * 1024 * 1024);
+    cache = new LruCache<String, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  public static synchronized IconLoader get(Context context) {
+    if (instance == null)
+      instance = new IconLoader(context.getApplicationContext());
+    return instance;
+  }
+
+  int defaultSize() {
+    return defaultSize;
+  }
+
+  private static String key(String packageName, int size) {
+    return packageName + '@' + size;
+  }
+
+  /**
+   * 提供缓存的默认尺寸图标，可在任意线程调用
+   */
+  void seed(String packageName, byte[] png) {
+    if (cache.get(key(packageName, defaultSize)) == null)
+      seeds.put(packageName, png);
+  }
+
+  /**
+   * 只能在主线程调用
+   */
+  public void load(ImageView view, String packageName) {
+    int size = size(view);
+    String key = key(packageName, size);
+    view.setTag(key);
+    Bitmap bitmap = cache.get(key);
+    if (bitmap != null) {
+      view.setImageBitmap(bitmap);
+      return;
+    }
+    view.setImageDrawable(null);
+    List<ImageView> waiting = pending.get(key);
+    if (waiting != null) {
+      waiting.add(view);
+      return;
+    }
+    waiting = new ArrayList<>();
+    waiting.add(view);
+    pending.put(key, waiting);
+    executor.execute(() -> {
+      Bitmap decoded = decode(packageName, size);
+      mainHandler.post(() -> deliver(key, decoded));
+    });
+  }
+
+  private void deliver(String key, Bitmap bitmap) {
+    if (bitmap != null)
+      cache.put(key, bitmap);
+    List<ImageView> waiting = pending.remove(key);
+    if (waiting == null)
+      return;
+    for (ImageView view : waiting) {
+      if (key.equals(view.getTag()))
+        view.setImageBitmap(bitmap);
+    }
+  }
+
+  private int size(ImageView view) {
+    ViewGroup.LayoutParams params = view.getLayoutParams();
+    if (params != null && params.width > 0)
+      return params.width;
+    return defaultSize;
+  }
+
+  private Bitmap decode(String packageName, int size) {
+    byte[] png = size == defaultSize ? seeds.remove(packageName) : null;
+    if (png != null) {
+      Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+      if (bitmap != null)
+        return bitmap;
+    }
+    Drawable drawable;
+    try {
+      drawable = pm.getApplicationIcon(packageName);
+    } catch (PackageManager.NameNotFoundException e) {
+      return null;
+    }
+    return render(drawable, size);
+  }
+
+  static Bitmap render(Drawable drawable, int size) {
+    Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    drawable.setBounds(0, 0, size, size);
+    drawable.draw(canvas);
+    return bitmap;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.applist;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 进程内共用的可启动应用快照，按引用计数持有，最后一个使用者释放后丢弃。
+ * Android 8.0及以上用getChangedPackages按序号取出变化的包，更早的版本靠包广播记录，
+ * 刷新时只重新查询变化的包，其余应用连同已读取的名称一起复用
+ */
+final class PackageSnapshot {
+
+  static final class App {
+    final String packageName;
+    final ResolveInfo info;
+    final ApplicationInfo appInfo;
+    final boolean isSystemApp;
+    /**
+     * 读取后填入，未读取时为null
+     */
+    volatile String label;
+
+    App(ResolveInfo info) {
+      this.info = info;
+      appInfo = info.activityInfo.applicationInfo;
+      packageName = appInfo.packageName;
+      isSystemApp = (appInfo.flags & (ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP)) != 0;
+    }
+  }
+
+  private static PackageSnapshot instance;
+  private static int refCount;
+
+  private final Context context;
+  private final PackageManager pm;
+  /**
+   * 包名 -> 应用，未扫描时为null。同一个包有多个入口时只保留第一个
+   */
+  private Map<String, App> apps;
+  private int sequence;
+  /**
+   * Android 8.0以前由广播记录变化的包，只在持有自身锁时访问
+   */
+  private final Set<String> pendingChanges = new HashSet<>();
+  private BroadcastReceiver receiver;
+
+  private PackageSnapshot(Context context) {
+    this.context = context;
+    pm = context.getPackageManager();
+  }
+
+  static synchronized PackageSnapshot acquire(Context context) {
+    if (instance == null) {
+      instance = new PackageSnapshot(context.getApplicationContext());
+      instance.register();
+    }
+    refCount++;
+    return instance;
+  }
+
+  static synchronized void release() {
+    if (refCount == 0 || --refCount > 0)
+      return;
+    instance.unregister();
+    instance = null;
+  }
+
+  private void register() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+      return;
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+    filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+    filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+    filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+    filter.addDataScheme("package");
+    receiver = new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        if (intent.getData() == null)
+          return;
+        synchronized (pendingChanges) {
+          pendingChanges.add(intent.getData().getSchemeSpecificPart());
+        }
+      }
+    };
+    context.registerReceiver(receiver, filter);
+  }
+
+  private void unregister() {
+    if (receiver != null) {
+      context.unregisterReceiver(receiver);
+      receiver = null;
+    }
+  }
+
+  private static Intent launcherIntent() {
+    Intent intent = new Intent(Intent.ACTION_MAIN);
+    intent.addCategory(Intent.CATEGORY_LAUNCHER);
+    return intent;
+  }
+
+  /**
+   * 在后台线程调用，返回最新的应用列表副本
+   *
+   * @throws SecurityException 没有查询应用列表的权限
+   */
+  synchronized List<App> refresh() {
+    if (apps == null) {
+      // 先记下当前序号，扫描期间发生的变化留到下次刷新
+      changedPackages();
+      scan();
+    } else {
+      for (String pkg : changedPackages())
+        update(pkg);
+    }
+    return new ArrayList<>(apps.values());
+  }
+
+  private Set<String> changedPackages() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      ChangedPackages changed = pm.getChangedPackages(sequence);
+      if (changed == null)
+        return Collections.emptySet();
+      sequence = changed.getSequenceNumber();
+      return new HashSet<>(changed.getPackageNames());
+    }
+    synchronized (pendingChanges) {
+      Set<String> changed = new HashSet<>(pendingChanges);
+      pendingChanges.clear();
+      return changed;
+    }
+  }
+
+  private void scan() {
+    Map<String, App> scanned = new LinkedHashMap<>();
+    List<ResolveInfo> resolveInfos = pm.queryIntentActivities(launcherIntent(), PackageManager.GET_META_DATA);
+    if (resolveInfos != null) {
+      for (ResolveInfo info : resolveInfos) {
+        App app = new App(info);
+        if (!scanned.containsKey(app.packageName))
+          scanned.put(app.packageName, app);
+      }
+    }
+    apps = scanned;
+  }
+
+  private void update(String pkg) {
+    apps.remove(pkg);
+    Intent intent = launcherIntent();
+    intent.setPackage(pkg);
+    List<ResolveInfo> resolveInfos = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
+    if (resolveInfos != null && !resolveInfos.isEmpty())
+      apps.put(pkg, new App(resolveInfos.get(0)));
+  }
+}
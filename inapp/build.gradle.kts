@@ -32,4 +32,6 @@ android {
 
 dependencies {
     compileOnly(files("../lib/albatross.jar"))
+    implementation(project(":rule"))
+    implementation(project(":applist"))
 }
\ No newline at end of file
@@ -21,16 +21,29 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-class HideAppDbHelper extends SQLiteOpenHelper {
+import qing.albatross.plugin.applist.AppListLoader;
+
+class HideAppDbHelper extends SQLiteOpenHelper implements AppListLoader.MetaStore {
   private static final String DB_NAME = "hide_app.db";
-  private static final int DB_VERSION = 1;
+  private static final int DB_VERSION = 2;
 
   static final String TABLE_SELECTED = "selected_apps";
   static final String COL_PACKAGE = "package_name";
 
+  // 应用名称和图标缓存，版本2新增
+  static final String TABLE_APP_META = "app_meta";
+  static final String COL_UPDATE_TIME = "update_time";
+  static final String COL_VERSION_CODE = "version_code";
+  static final String COL_LOCALE = "locale";
+  static final String COL_LABEL = "label";
+  static final String COL_ICON = "icon";
+
   HideAppDbHelper(Context context) {
     super(context, DB_NAME, null, DB_VERSION);
   }
@@ -39,11 +52,23 @@ class HideAppDbHelper extends SQLiteOpenHelper {
   public void onCreate(SQLiteDatabase db) {
     db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SELECTED + " (" +
         COL_PACKAGE + " TEXT PRIMARY KEY)");
+    createMetaTable(db);
+  }
+
+  private static void createMetaTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_APP_META + " (" +
+        COL_PACKAGE + " TEXT PRIMARY KEY, " +
+        COL_UPDATE_TIME + " INTEGER NOT NULL, " +
+        COL_VERSION_CODE + " INTEGER NOT NULL, " +
+        COL_LOCALE + " TEXT NOT NULL, " +
+        COL_LABEL + " TEXT NOT NULL, " +
+        COL_ICON + " BLOB)");
   }
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    // no-op for now
+    if (oldVersion < 2)
+      createMetaTable(db);
   }
 
   Set<String> loadSelectedPackages() {
@@ -73,6 +98,44 @@ class HideAppDbHelper extends SQLiteOpenHelper {
       db.endTransaction();
     }
   }
-}
 
+  @Override
+  public Map<String, AppListLoader.Meta> loadAppMeta() {
+    Map<String, AppListLoader.Meta> metas = new HashMap<>();
+    SQLiteDatabase db = getReadableDatabase();
+    try (Cursor c = db.query(TABLE_APP_META,
+        new String[]{COL_PACKAGE, COL_UPDATE_TIME, COL_VERSION_CODE, COL_LOCALE, COL_LABEL, COL_ICON},
+        null, null, null, null, null)) {
+      while (c.moveToNext()) {
+        String pkg = c.getString(0);
+        metas.put(pkg, new AppListLoader.Meta(pkg, c.getLong(1), c.getLong(2), c.getString(3), c.getString(4),
+            c.isNull(5) ? null : c.getBlob(5)));
+      }
+    }
+    return metas;
+  }
 
+  @Override
+  public void saveAppMeta(Collection<AppListLoader.Meta> changed, Collection<String> removed) {
+    SQLiteDatabase db = getWritableDatabase();
+    db.beginTransaction();
+    try {
+      ContentValues values = new ContentValues();
+      for (AppListLoader.Meta meta : changed) {
+        values.clear();
+        values.put(COL_PACKAGE, meta.packageName);
+        values.put(COL_UPDATE_TIME, meta.updateTime);
+        values.put(COL_VERSION_CODE, meta.versionCode);
+        values.put(COL_LOCALE, meta.locale);
+        values.put(COL_LABEL, meta.label);
+        values.put(COL_ICON, meta.icon);
+        db.insertWithOnConflict(TABLE_APP_META, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      for (String pkg : removed)
+        db.delete(TABLE_APP_META, COL_PACKAGE + " = ?", new String[]{pkg});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+}
@@ -18,19 +18,29 @@ package qing.albatross.plugin.app;
 import android.app.Application;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import qing.albatross.agent.AlbatrossPlugin;
 import qing.albatross.core.Albatross;
+import qing.albatross.plugin.rule.PackageSet;
+import qing.albatross.plugin.rule.SpanRing;
 
 public class HideAppPlugin extends AlbatrossPlugin {
 
-  public static List<String> hideApps;
+  /**
+   * 参数中的选项，不是包名：不常用的接口等主线程空闲后再hook。
+   * 由配置界面的复选框单独保存，每次保存时追加到包名之后
+   */
+  static final String OPTION_DEFER_HOOKS = "#defer";
+
+  static volatile PackageSet hideApps = PackageSet.EMPTY;
+  static volatile boolean deferHooks;
+  private static volatile String[] hidePackages = new String[0];
+  private static volatile String selfPackage;
+  private static volatile boolean applicationCreated;
 
   public HideAppPlugin(String libName, String argString, int flags) {
     super(libName, argString, flags);
-    hideApps = new ArrayList<>();
   }
 
   @Override
@@ -41,39 +51,72 @@ public class HideAppPlugin extends AlbatrossPlugin {
   @Override
   public boolean load() {
     Albatross.log("HideAppPlugin load");
-    return super.load();
+    long begin = SpanRing.begin();
+    boolean loaded = super.load();
+    SpanRing.STARTUP.end("load", begin);
+    return loaded;
   }
 
   @Override
   public boolean parseParams(String argString, int flags) {
-    hideApps.clear();
-    if (argString != null) {
-      String[] packages = argString.split(",");
-      Collections.addAll(hideApps, packages);
+    if (SpanRing.DUMP_COMMAND.equals(argString)) {
+      // 旧版本通过plugin_params发送的命令可能被宿主持久化，不能当作包名
+      Albatross.log("ignore command in params:" + argString);
+      return true;
+    }
+    long begin = SpanRing.begin();
+    String[] entries = argString != null ? argString.split(",") : new String[0];
+    boolean defer = false;
+    List<String> packages = new ArrayList<>(entries.length);
+    for (String entry : entries) {
+      if (OPTION_DEFER_HOOKS.equals(entry))
+        defer = true;
+      else
+        packages.add(entry);
     }
+    deferHooks = defer;
+    hidePackages = packages.toArray(new String[0]);
+    Application application = Albatross.currentApplication();
+    if (application != null)
+      selfPackage = application.getPackageName();
+    hideApps = compile(hidePackages, selfPackage);
+    SpanRing.STARTUP.end("parse", begin);
+    // 应用已经创建时规则变化，补装之前因为没有规则而跳过的hook
+    if (application != null && applicationCreated)
+      IPackageManagerH.init();
     return true;
   }
 
-  @Override
-  public void onConfigChange(String config, int flags) {
-    super.onConfigChange(config, flags);
-    Application application = Albatross.currentApplication();
-    if (application != null) {
-      String targetPackage = application.getPackageName();
-      hideApps.remove(targetPackage);
+  /**
+   * 构建新的只读集合后整体替换，不会修改正在被hook读取的集合。
+   * 通配规则同样不会隐藏应用自身
+   */
+  private static PackageSet compile(String[] packages, String self) {
+    List<String> list = new ArrayList<>(packages.length);
+    for (String pkg : packages) {
+      if (!pkg.isEmpty() && !pkg.equals(self))
+        list.add(pkg);
     }
+    return PackageSet.of(list, self);
   }
 
   @Override
   public void beforeApplicationCreate(Application application) {
     Albatross.log("HideAppPlugin beforeApplicationCreate");
+    long begin = SpanRing.begin();
     String targetPackage = application.getPackageName();
-    hideApps.remove(targetPackage);
+    if (!targetPackage.equals(selfPackage)) {
+      selfPackage = targetPackage;
+      hideApps = compile(hidePackages, selfPackage);
+    }
+    applicationCreated = true;
     IPackageManagerH.init();
+    SpanRing.STARTUP.end("beforeApplicationCreate", begin);
   }
 
   @Override
   public void afterApplicationCreate(Application application) {
     Albatross.log("HideAppPlugin afterApplicationCreate");
+    Albatross.log(SpanRing.STARTUP.dump());
   }
 }
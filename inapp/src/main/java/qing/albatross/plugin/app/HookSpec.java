@@ -0,0 +1,130 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.app;
+
+import android.content.pm.PackageManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import qing.albatross.annotation.ExecOption;
+import qing.albatross.core.Albatross;
+import qing.albatross.core.MethodCallback;
+import qing.albatross.plugin.rule.ListFilter;
+import qing.albatross.plugin.rule.SpanRing;
+
+/**
+ * 一条声明式的hook：方法名、结果形态和包名提取器。
+ * 安装时按方法名匹配目标类上的所有重载，不同SDK的int/long flags签名由同一条声明覆盖，
+ * 回调在声明时创建一次，之后所有调用共用
+ */
+final class HookSpec {
+
+  final String method;
+  private final MethodCallback callback;
+  private boolean deferred;
+  private boolean installed;
+  private static boolean firstFilterLogged;
+
+  private HookSpec(String method, MethodCallback callback) {
+    this.method = method;
+    this.callback = callback;
+  }
+
+  /**
+   * 返回ParceledListSlice的接口，原地过滤其中的列表
+   */
+  static <T> HookSpec slice(String method, ListFilter.PackageGetter<T> getter) {
+    return new HookSpec(method, frame -> {
+      Object result = frame.invokeObject();
+      if (result != null) {
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) IPackageManagerH.ParceledListSliceH.getList(result);
+        ListFilter.filter(list, HideAppPlugin.hideApps, getter);
+        if (!firstFilterLogged) {
+          // 应用内没有命令通道，第一次过滤后把启动耗时输出到日志
+          firstFilterLogged = true;
+          Albatross.log(SpanRing.STARTUP.dump());
+        }
+      }
+      return result;
+    });
+  }
+
+  /**
+   * 返回单个对象的接口，被隐藏时返回null
+   */
+  static <T> HookSpec one(String method, ListFilter.PackageGetter<T> getter) {
+    return new HookSpec(method, frame -> {
+      @SuppressWarnings("unchecked")
+      T result = (T) frame.invokeObject();
+      if (result != null && HideAppPlugin.hideApps.contains(getter.getPackageName(result)))
+        return null;
+      return result;
+    });
+  }
+
+  /**
+   * 第一个参数是包名的接口，被隐藏时不调用原方法，直接抛出NameNotFoundException
+   */
+  static HookSpec packageArg(String method) {
+    return new HookSpec(method, frame -> {
+      Object packageName = frame.getParamObject(0);
+      if (packageName instanceof String && HideAppPlugin.hideApps.contains((String) packageName))
+        throw HookSpec.<RuntimeException>sneakyThrow(new PackageManager.NameNotFoundException((String) packageName));
+      return frame.invokeObject();
+    });
+  }
+
+  /**
+   * 启动阶段很少调用的接口，推迟到首帧之后在后台线程安装
+   */
+  HookSpec deferred() {
+    deferred = true;
+    return this;
+  }
+
+  boolean isDeferred() {
+    return deferred;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E extends Throwable> E sneakyThrow(Throwable e) throws E {
+    throw (E) e;
+  }
+
+  /**
+   * 已经安装过的不会重复安装
+   *
+   * @return hook成功的重载个数
+   */
+  synchronized int install(Class<?> target) {
+    if (installed)
+      return 0;
+    installed = true;
+    int count = 0;
+    for (Method m : target.getDeclaredMethods()) {
+      if (!m.getName().equals(method) || Modifier.isAbstract(m.getModifiers()))
+        continue;
+      if (Albatross.hookMethod(m, callback, ExecOption.DEFAULT_OPTION) != null)
+        count++;
+      else
+        Albatross.log("hook " + m + " fail");
+    }
+    return count;
+  }
+}
@@ -15,52 +15,47 @@
  */
 package qing.albatross.plugin.app;
 
-import android.content.Intent;
 import android.content.pm.ComponentInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.os.Parcelable;
+import android.os.Handler;
+import android.os.Looper;
 
+import java.lang.reflect.Field;
 import java.util.List;
 
 import qing.albatross.annotation.DefOption;
-import qing.albatross.annotation.FieldRef;
 import qing.albatross.annotation.MethodBackup;
-import qing.albatross.annotation.MethodHookBackup;
 import qing.albatross.annotation.TargetClass;
 import qing.albatross.core.Albatross;
 import qing.albatross.exception.AlbatrossErr;
+import qing.albatross.plugin.rule.SpanRing;
 
-@TargetClass
+/**
+ * 应用进程内IPackageManager binder代理的hook表，新增需要过滤的接口只需在{@link #HOOKS}中加一行。
+ * 没有隐藏规则时不安装任何hook，否则默认全部在Application创建前同步安装。
+ * 参数中带{@link HideAppPlugin#OPTION_DEFER_HOOKS}时，标记为deferred的hook改为在主线程首次空闲后
+ * 由后台线程安装，缩短冷启动关键路径，代价是在此之前这些接口不会被过滤
+ */
 public class IPackageManagerH {
 
-  @TargetClass
-  static class ParceledListSlice<T extends Parcelable> {
-
-    @FieldRef(option = DefOption.VIRTUAL)
-    private List<T> mList;
-
-  }
+  static final HookSpec[] HOOKS = {
+      HookSpec.slice("queryIntentActivities", PackageGetters.RESOLVE_INFO),
+      HookSpec.slice("getInstalledPackages", PackageGetters.PACKAGE_INFO),
+      HookSpec.one("resolveIntent", PackageGetters.RESOLVE_INFO),
+      HookSpec.packageArg("getPackageInfo"),
+      HookSpec.slice("queryIntentServices", PackageGetters.RESOLVE_INFO).deferred(),
+      HookSpec.slice("queryIntentReceivers", PackageGetters.RESOLVE_INFO).deferred(),
+      HookSpec.slice("queryIntentContentProviders", PackageGetters.RESOLVE_INFO).deferred(),
+      HookSpec.one("resolveService", PackageGetters.RESOLVE_INFO).deferred(),
+      HookSpec.packageArg("getInstallerPackageName").deferred(),
+  };
 
-  static class PackageManagerH {
-
-    @FieldRef(option = DefOption.INSTANCE)
-    IPackageManagerH mPM;
-  }
-
-  static boolean init() {
-    Albatross.transactionBegin();
-    try {
-      Albatross.hookObject(PackageManagerH.class, Albatross.currentApplication().getPackageManager());
-      Albatross.hookClass(ResolveInfoH.class);
-      Albatross.transactionEnd(true);
-      return true;
-    } catch (AlbatrossErr e) {
-      Albatross.transactionEnd(false);
-      return false;
-    }
+  @TargetClass(className = "android.content.pm.ParceledListSlice")
+  static class ParceledListSliceH {
 
+    @MethodBackup(option = DefOption.VIRTUAL)
+    static native List<?> getList(Object self);
   }
 
   @TargetClass(ResolveInfo.class)
@@ -69,140 +64,92 @@ public class IPackageManagerH {
     public static native ComponentInfo getComponentInfo(ResolveInfo resolveInfo);
   }
 
-  @MethodHookBackup(maxSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentActivities(Intent intent, String resolvedType, int flags, int userId) {
-    return filterParceledListSlice(queryIntentActivities(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentActivities(Intent intent, String resolvedType, long flags, int userId) {
-    return filterParceledListSlice(queryIntentActivities(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(maxSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentServices(Intent intent, String resolvedType, int flags, int userId) {
-    return filterParceledListSlice(queryIntentServices(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentServices(Intent intent, String resolvedType, long flags, int userId) {
-    return filterParceledListSlice(queryIntentServices(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(maxSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentReceivers(Intent intent, String resolvedType, int flags, int userId) {
-    return filterParceledListSlice(queryIntentReceivers(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentReceivers(Intent intent, String resolvedType, long flags, int userId) {
-    return filterParceledListSlice(queryIntentReceivers(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-
-  @MethodHookBackup(maxSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentContentProviders(Intent intent, String resolvedType, int flags, int userId) {
-    return filterParceledListSlice(queryIntentContentProviders(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private ParceledListSlice<ResolveInfo> queryIntentContentProviders(Intent intent, String resolvedType, long flags, int userId) {
-    return filterParceledListSlice(queryIntentContentProviders(intent, resolvedType, flags, userId), o -> ResolveInfoH.getComponentInfo(o).packageName);
-  }
-
-  @MethodHookBackup(maxSdk = 32)
-  private ResolveInfo resolveService(Intent intent, String resolvedType, int flags, int userId) {
-    return checkResolveInfoInfo(resolveService(intent, resolvedType, flags, userId));
-  }
+  private static Class<?> binderClass;
+  private static boolean deferredScheduled;
 
-  @MethodHookBackup(minSdk = 32)
-  private ResolveInfo resolveService(Intent intent, String resolvedType, long flags, int userId) {
-    return checkResolveInfoInfo(resolveService(intent, resolvedType, flags, userId));
-  }
-
-
-  private static ResolveInfo checkResolveInfoInfo(ResolveInfo resolveInfo) {
-    ComponentInfo componentInfo = ResolveInfoH.getComponentInfo(resolveInfo);
-    if (HideAppPlugin.hideApps.contains(componentInfo.packageName))
-      return null;
-    return resolveInfo;
-  }
-
-  @MethodHookBackup(maxSdk = 32)
-  private ResolveInfo resolveIntent(Intent intent, String resolvedType, int flags, int userId) {
-    ResolveInfo resolveInfo = resolveIntent(intent, resolvedType, flags, userId);
-    return checkResolveInfoInfo(resolveInfo);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private ResolveInfo resolveIntent(Intent intent, String resolvedType, long flags, int userId) {
-    ResolveInfo resolveInfo = resolveIntent(intent, resolvedType, flags, userId);
-    return checkResolveInfoInfo(resolveInfo);
-  }
-
-
-  interface ParceledListGet<T> {
-    String getPackageName(T object);
-  }
-
-  @MethodHookBackup(maxSdk = 32)
-  private PackageInfo getPackageInfo(String packageName, int flags, int userId) throws PackageManager.NameNotFoundException {
-    if (packageName != null && HideAppPlugin.hideApps.contains(packageName)) {
-      throw new PackageManager.NameNotFoundException(packageName);
+  /**
+   * 可重复调用，规则从空变为非空后再次调用会补装hook
+   */
+  static synchronized boolean init() {
+    if (HideAppPlugin.hideApps.isEmpty()) {
+      Albatross.log("no hide rules, skip IPackageManager hooks");
+      return true;
     }
-    return getPackageInfo(packageName, flags, userId);
-  }
-
-  @MethodHookBackup(minSdk = 32)
-  private PackageInfo getPackageInfo(String packageName, long flags, int userId) throws PackageManager.NameNotFoundException {
-    if (packageName != null && HideAppPlugin.hideApps.contains(packageName)) {
-      throw new PackageManager.NameNotFoundException(packageName);
+    long start = SpanRing.begin();
+    if (binderClass == null) {
+      Class<?> target = binderClass(Albatross.currentApplication().getPackageManager());
+      if (target == null)
+        return false;
+      Albatross.transactionBegin();
+      try {
+        Albatross.hookClass(ResolveInfoH.class);
+        Albatross.hookClass(ParceledListSliceH.class);
+        Albatross.transactionEnd(true);
+      } catch (AlbatrossErr e) {
+        Albatross.transactionEnd(false);
+        Albatross.log("hook IPackageManager helper err", e);
+        return false;
+      }
+      binderClass = target;
+    }
+    boolean defer = HideAppPlugin.deferHooks;
+    int count = install(false);
+    if (!defer)
+      count += install(true);
+    SpanRing.STARTUP.end("install hooks", start);
+    Albatross.log("install " + count + " IPackageManager hooks in " + (SpanRing.begin() - start) / 1000 + "us");
+    if (defer && !deferredScheduled) {
+      deferredScheduled = true;
+      scheduleDeferred();
     }
-    return getPackageInfo(packageName, flags, userId);
+    return true;
   }
 
-  static <T extends Parcelable> ParceledListSlice<T> filterParceledListSlice(ParceledListSlice<T> parceledList, ParceledListGet<T> get) {
-    List<T> applicationInfos = parceledList.mList;
-    if (applicationInfos != null) {
-      int size = applicationInfos.size();
-      if (size > 0) {
-        for (int i = size - 1; i >= 0; i--) {
-          T o = applicationInfos.get(i);
-          if (o == null)
-            continue;
-          String app_pkg = get.getPackageName(o);
-          if (app_pkg != null && HideAppPlugin.hideApps.contains(app_pkg)) {
-            applicationInfos.remove(i);
-          }
-        }
+  private static int install(boolean deferred) {
+    int count = 0;
+    for (HookSpec hook : HOOKS) {
+      if (hook.isDeferred() == deferred)
+        count += hook.install(binderClass);
+    }
+    return count;
+  }
+
+  /**
+   * 主线程第一次空闲时首帧通常已经画完，此时再到后台线程安装其余hook
+   */
+  private static void scheduleDeferred() {
+    Runnable task = () -> {
+      long start = SpanRing.begin();
+      int count;
+      synchronized (IPackageManagerH.class) {
+        count = install(true);
       }
+      SpanRing.STARTUP.end("install deferred hooks", start);
+      Albatross.log("install " + count + " deferred IPackageManager hooks in " + (SpanRing.begin() - start) / 1000 + "us");
+    };
+    Looper mainLooper = Looper.getMainLooper();
+    if (mainLooper == null) {
+      task.run();
+      return;
     }
-    return parceledList;
-  }
-
-
-  @MethodHookBackup(maxSdk = 32)
-  private ParceledListSlice<PackageInfo> getInstalledPackages(int flags, int userId) {
-    ParceledListSlice<PackageInfo> parceledList = getInstalledPackages(flags, userId);
-    if (parceledList == null)
-      return null;
-    return filterParceledListSlice(parceledList, o -> o.packageName);
+    new Handler(mainLooper).post(() -> Looper.myQueue().addIdleHandler(() -> {
+      new Thread(task, "HideAppHooks").start();
+      return false;
+    }));
   }
 
-  @MethodHookBackup(minSdk = 32)
-  private ParceledListSlice<PackageInfo> getInstalledPackages(long flags, int userId) {
-    ParceledListSlice<PackageInfo> parceledList = getInstalledPackages(flags, userId);
-    if (parceledList == null)
+  /**
+   * ApplicationPackageManager.mPM的实际类型，通常是IPackageManager.Stub.Proxy
+   */
+  private static Class<?> binderClass(PackageManager pm) {
+    try {
+      Field field = pm.getClass().getDeclaredField("mPM");
+      field.setAccessible(true);
+      Object binder = field.get(pm);
+      return binder != null ? binder.getClass() : null;
+    } catch (ReflectiveOperationException e) {
+      Albatross.log("get IPackageManager err", e);
       return null;
-    return filterParceledListSlice(parceledList, o -> o.packageName);
-  }
-
-
-  @MethodHookBackup
-  private String getInstallerPackageName(String packageName) throws PackageManager.NameNotFoundException {
-    if (packageName != null && HideAppPlugin.hideApps.contains(packageName)) {
-      throw new PackageManager.NameNotFoundException(packageName);
     }
-    return getInstallerPackageName(packageName);
   }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.app;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.ResolveInfo;
+
+import qing.albatross.plugin.rule.ListFilter;
+
+/**
+ * 应用进程中各种结果类型的包名提取器
+ */
+final class PackageGetters {
+
+  static final ListFilter.PackageGetter<ResolveInfo> RESOLVE_INFO = new ListFilter.PackageGetter<ResolveInfo>() {
+    @Override
+    public String getPackageName(ResolveInfo object) {
+      return IPackageManagerH.ResolveInfoH.getComponentInfo(object).packageName;
+    }
+  };
+
+  static final ListFilter.PackageGetter<PackageInfo> PACKAGE_INFO = new ListFilter.PackageGetter<PackageInfo>() {
+    @Override
+    public String getPackageName(PackageInfo object) {
+      return object.packageName;
+    }
+  };
+
+  private PackageGetters() {
+  }
+}
@@ -17,9 +17,6 @@ package qing.albatross.plugin.app;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.Bundle;
 import android.util.ArraySet;
 import android.view.View;
@@ -27,6 +24,7 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -37,15 +35,29 @@ import java.util.List;
 import java.util.Set;
 
 import qing.albatross.plugin.R;
+import qing.albatross.plugin.applist.AppListLoader;
+import qing.albatross.plugin.applist.IconLoader;
+import qing.albatross.plugin.rule.PackageSet;
 
 public class PluginConfigActivity extends Activity {
+  private static final String PREFS_NAME = "plugin_config";
+  /**
+   * 选项不是包名，不存进数据库，保存时追加到参数中
+   */
+  private static final String KEY_DEFER_HOOKS = "defer_hooks";
   private ListView listView;
   private AppAdapter adapter;
   private final List<AppInfo> appList = new ArrayList<>();
+  // 前缀规则和手动输入的包名，不随应用列表重新加载
+  private final List<AppInfo> manualRows = new ArrayList<>();
+  private boolean manualRowsLoaded = false;
   private HideAppDbHelper dbHelper;
+  private AppListLoader appLoader;
   private CheckBox checkBoxFilterSystemApps;
   private Button buttonSelectAll;
   private Button buttonDeselectAll;
+  private EditText editTextManualEntry;
+  private CheckBox checkBoxDeferHooks;
   private boolean isShowSystemApps = false;
 
   // 应用信息类
@@ -71,6 +83,7 @@ public class PluginConfigActivity extends Activity {
     setContentView(R.layout.activity_plugin_config); // 通过布局文件加载UI
 
     dbHelper = new HideAppDbHelper(this);
+    appLoader = new AppListLoader(this, dbHelper);
 
     // 初始化控件
     listView = findViewById(R.id.listViewApps);
@@ -101,53 +114,102 @@ public class PluginConfigActivity extends Activity {
       selectAllApps(false);
     });
 
+    checkBoxDeferHooks = findViewById(R.id.checkBoxDeferHooks);
+    checkBoxDeferHooks.setChecked(getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getBoolean(KEY_DEFER_HOOKS, false));
+
+    editTextManualEntry = findViewById(R.id.editTextManualEntry);
+    Button buttonAddManualEntry = findViewById(R.id.buttonAddManualEntry);
+    buttonAddManualEntry.setOnClickListener(v -> {
+      addManualEntry();
+    });
+
     loadApps();
   }
 
-  private void loadApps() {
-    PackageManager pm = getPackageManager();
-    Intent intent = new Intent(Intent.ACTION_MAIN);
-    intent.addCategory(Intent.CATEGORY_LAUNCHER);
-    List<ResolveInfo> resolveInfos;
-    try {
-      resolveInfos = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
-    } catch (SecurityException e) {
-      // 处理权限异常
-      Toast.makeText(this, "无法获取应用列表: 权限不足", Toast.LENGTH_SHORT).show();
+  /**
+   * 已保存的前缀规则不对应任何已安装应用，单独列在最前面
+   */
+  private void loadManualRows() {
+    if (manualRowsLoaded)
       return;
+    manualRowsLoaded = true;
+    for (String pkg : dbHelper.loadSelectedPackages()) {
+      if (PackageSet.isPattern(pkg)) {
+        AppInfo appInfo = new AppInfo(pkg, "前缀规则", false);
+        appInfo.isSelected = true;
+        manualRows.add(appInfo);
+      }
     }
-    if (resolveInfos.isEmpty()) {
-      Toast.makeText(this, "未找到可显示的应用", Toast.LENGTH_SHORT).show();
+  }
+
+  private void addManualEntry() {
+    String entry = editTextManualEntry.getText().toString().trim();
+    if (!PackageSet.isValidEntry(entry)) {
+      Toast.makeText(this, "格式错误：包名或以*结尾的前缀", Toast.LENGTH_SHORT).show();
       return;
     }
-    appList.clear();
-    String selfPkg = getPackageName();
+    editTextManualEntry.setText("");
+    for (AppInfo appInfo : appList) {
+      if (appInfo.packageName.equals(entry)) {
+        appInfo.isSelected = true;
+        adapter.notifyDataSetChanged();
+        updateSelectAllButtonState();
+        return;
+      }
+    }
+    AppInfo appInfo = new AppInfo(entry, PackageSet.isPattern(entry) ? "前缀规则" : "手动添加", false);
+    appInfo.isSelected = true;
+    manualRows.add(appInfo);
+    appList.add(0, appInfo);
+    adapter.notifyDataSetChanged();
+    updateSelectAllButtonState();
+  }
 
-    for (ResolveInfo info : resolveInfos) {
-      ApplicationInfo appInfo = info.activityInfo.applicationInfo;
-      String pkg = appInfo.packageName;
-      if (selfPkg.equals(pkg)) continue;
+  private void loadApps() {
+    appList.clear();
+    loadManualRows();
+    appList.addAll(manualRows);
+    adapter.notifyDataSetChanged();
+    updateSelectAllButtonState();
+    appLoader.load(isShowSystemApps, null, new AppListLoader.Listener() {
+      private Set<String> preselected;
 
-      // 更全面的系统应用判断
-      boolean isSystemApp = (appInfo.flags & (ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP)) != 0;
+      @Override
+      public void onPrepare() {
+        preselected = dbHelper.loadSelectedPackages();
+      }
 
-      if (!isShowSystemApps && isSystemApp) continue;
+      @Override
+      public void onBatch(List<AppListLoader.Entry> batch) {
+        for (AppListLoader.Entry entry : batch) {
+          if (isManualRow(entry.packageName))
+            continue;
+          AppInfo appInfo = new AppInfo(entry.packageName, entry.appName, entry.isSystemApp);
+          appInfo.isSelected = preselected.contains(entry.packageName);
+          appList.add(appInfo);
+        }
+        adapter.notifyDataSetChanged();
+        updateSelectAllButtonState();
+      }
 
-      CharSequence label = info.loadLabel(pm);
-      String appName = label != null ? label.toString() : pkg;
-      appList.add(new AppInfo(pkg, appName, isSystemApp));
-    }
+      @Override
+      public void onFinish(int count) {
+        updateSelectAllButtonState();
+      }
 
-    adapter.notifyDataSetChanged();
-    Set<String> preselected = dbHelper.loadSelectedPackages();
-    for (int i = 0; i < appList.size(); i++) {
-      AppInfo appInfo = appList.get(i);
-      if (preselected.contains(appInfo.packageName)) {
-//        listView.setItemChecked(i, true);
-        appInfo.isSelected = true;
+      @Override
+      public void onError(String message) {
+        Toast.makeText(PluginConfigActivity.this, message, Toast.LENGTH_SHORT).show();
       }
+    });
+  }
+
+  private boolean isManualRow(String packageName) {
+    for (AppInfo appInfo : manualRows) {
+      if (appInfo.packageName.equals(packageName))
+        return true;
     }
-    updateSelectAllButtonState();
+    return false;
   }
 
   /**
@@ -205,7 +267,7 @@ public class PluginConfigActivity extends Activity {
   }
 
   private class AppAdapter extends BaseAdapter {
-    private final PackageManager pm = getPackageManager();
+    private final IconLoader iconLoader = IconLoader.get(getApplicationContext());
 
     @Override
     public int getCount() {
@@ -238,11 +300,7 @@ public class PluginConfigActivity extends Activity {
       }
       AppInfo appInfo = appList.get(position);
       holder.textView.setText(appInfo.displayText);
-      try {
-        holder.imageView.setImageDrawable(pm.getApplicationIcon(appInfo.packageName));
-      } catch (PackageManager.NameNotFoundException e) {
-        holder.imageView.setImageDrawable(null);
-      }
+      iconLoader.load(holder.imageView, appInfo.packageName);
       holder.checkBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
         appInfo.isSelected = isChecked;
         updateSelectAllButtonState(); // 更新按钮状态
@@ -260,17 +318,28 @@ public class PluginConfigActivity extends Activity {
 
   private void saveAndFinish() {
     Set<String> preselected = new ArraySet<>();
+    Set<String> listed = new ArraySet<>();
     for (AppInfo appInfo : appList) {
+      listed.add(appInfo.packageName);
       if (appInfo.isSelected)
         preselected.add(appInfo.packageName);
     }
+    // 不在列表中的已保存规则原样保留：通配规则、未显示的系统应用、还没加载到的应用
+    for (String pkg : dbHelper.loadSelectedPackages()) {
+      if (!listed.contains(pkg))
+        preselected.add(pkg);
+    }
     dbHelper.saveSelectedPackages(preselected);
+    boolean deferHooks = checkBoxDeferHooks.isChecked();
+    getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putBoolean(KEY_DEFER_HOOKS, deferHooks).apply();
     Intent result = new Intent();
     if (!preselected.isEmpty()) {
       StringBuilder builder = new StringBuilder();
       for (String pkg : preselected) {
         builder.append(pkg).append(",");
       }
+      if (deferHooks)
+        builder.append(HideAppPlugin.OPTION_DEFER_HOOKS).append(",");
       result.putExtra("plugin_params", builder.substring(0, builder.length() - 1));
     }
     result.putExtra("plugin_class", this.getClass().getName().replace("PluginConfigActivity", "HideAppPlugin"));
@@ -278,4 +347,10 @@ public class PluginConfigActivity extends Activity {
     finish();
   }
 
+  @Override
+  protected void onDestroy() {
+    appLoader.shutdown();
+    super.onDestroy();
+  }
+
 }
@@ -16,16 +16,13 @@
 package qing.albatross.plugin.sys;
 
 import android.app.Activity;
-import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -37,15 +34,24 @@ import java.util.List;
 import java.util.Set;
 
 import qing.albatross.plugin.R;
+import qing.albatross.plugin.applist.AppListLoader;
+import qing.albatross.plugin.applist.IconLoader;
+import qing.albatross.plugin.rule.HideRules;
+import qing.albatross.plugin.rule.PackageSet;
 
 public class AppDetailActivity extends Activity {
   private AppAdapter adapter;
   private final List<HideAppInfo> appList = new ArrayList<>();
   private final Set<String> selectedPackages = new HashSet<>();
+  // 前缀规则和手动输入的包名，不随应用列表重新加载
+  private final List<HideAppInfo> manualRows = new ArrayList<>();
   private HideAppSystemDbHelper dbHelper;
+  private AppListLoader appLoader;
+  private volatile boolean selectionLoaded;
   private String targetPackage;
   private String targetName;
   private CheckBox checkBoxFilterSystemApps;
+  private EditText editTextManualEntry;
   private boolean isShowSystemApps = false;
 
   // 隐藏应用信息类
@@ -77,9 +83,15 @@ public class AppDetailActivity extends Activity {
       return;
     }
 
-    setTitle("配置 " + targetName + " 要隐藏的应用");
+    if (HideRules.GLOBAL_TARGET.equals(targetPackage))
+      setTitle("配置对所有应用隐藏的应用");
+    else if (HideRules.EXEMPT_TARGET.equals(targetPackage))
+      setTitle("配置不受全局隐藏影响的应用");
+    else
+      setTitle("配置 " + targetName + " 要隐藏的应用");
 
     dbHelper = new HideAppSystemDbHelper(this);
+    appLoader = new AppListLoader(this, dbHelper);
 
     // 初始化控件
     ListView listView = findViewById(R.id.listViewApps);
@@ -95,53 +107,129 @@ public class AppDetailActivity extends Activity {
       loadApps();
     });
 
+    editTextManualEntry = findViewById(R.id.editTextManualEntry);
+    if (HideRules.EXEMPT_TARGET.equals(targetPackage))
+      editTextManualEntry.setHint("完整包名");
+    Button buttonAddManualEntry = findViewById(R.id.buttonAddManualEntry);
+    buttonAddManualEntry.setOnClickListener(v -> addManualEntry());
+
     loadApps();
   }
 
-  private void loadApps() {
-    PackageManager pm = getPackageManager();
-    Intent intent = new Intent(Intent.ACTION_MAIN);
-    intent.addCategory(Intent.CATEGORY_LAUNCHER);
-    List<ResolveInfo> resolveInfos;
-    try {
-      resolveInfos = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
-    } catch (SecurityException e) {
-      Toast.makeText(this, "无法获取应用列表: 权限不足", Toast.LENGTH_SHORT).show();
+  private void addManualEntry() {
+    if (!selectionLoaded) {
+      Toast.makeText(this, "正在加载已保存的规则", Toast.LENGTH_SHORT).show();
       return;
     }
-    if (resolveInfos == null || resolveInfos.isEmpty()) {
-      Toast.makeText(this, "未找到可显示的应用", Toast.LENGTH_SHORT).show();
+    String entry = editTextManualEntry.getText().toString().trim();
+    if (!PackageSet.isValidEntry(entry)) {
+      Toast.makeText(this, "格式错误：包名或以*结尾的前缀", Toast.LENGTH_SHORT).show();
       return;
     }
+    if (HideRules.EXEMPT_TARGET.equals(targetPackage) && PackageSet.isPattern(entry)) {
+      // 豁免名单按调用方appId判断，前缀解析不出appId
+      Toast.makeText(this, "豁免名单只能填写完整包名", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    editTextManualEntry.setText("");
+    selectedPackages.add(entry);
+    if (!isListed(entry)) {
+      HideAppInfo appInfo = manualRow(entry);
+      manualRows.add(appInfo);
+      appList.add(0, appInfo);
+    }
+    adapter.notifyDataSetChanged();
+  }
 
-    appList.clear();
-    selectedPackages.clear();
-    String selfPkg = getPackageName();
+  private static HideAppInfo manualRow(String entry) {
+    return new HideAppInfo(entry, PackageSet.isPattern(entry) ? "前缀规则" : "手动添加", false);
+  }
 
-    // 加载已保存的隐藏规则
-    for (HideAppSystemDbHelper.HideAppInfo saved : dbHelper.getHideAppsForTarget(targetPackage)) {
-      selectedPackages.add(saved.packageName);
+  private boolean isListed(String packageName) {
+    for (HideAppInfo appInfo : appList) {
+      if (appInfo.packageName.equals(packageName))
+        return true;
     }
+    return false;
+  }
 
-    for (ResolveInfo info : resolveInfos) {
-      ApplicationInfo appInfo = info.activityInfo.applicationInfo;
-      String pkg = appInfo.packageName;
-      if (selfPkg.equals(pkg) || targetPackage.equals(pkg)) continue;
-
-      boolean isSystemApp = (appInfo.flags & (ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP)) != 0;
-      if (!isShowSystemApps && isSystemApp) continue;
+  private boolean isManualRow(String packageName) {
+    for (HideAppInfo appInfo : manualRows) {
+      if (appInfo.packageName.equals(packageName))
+        return true;
+    }
+    return false;
+  }
 
-      CharSequence label = info.loadLabel(pm);
-      String appName = label != null ? label.toString() : pkg;
+  /**
+   * 按用户生效的目标形如pkg@userId，列表中要排除的是它的包名
+   */
+  private static String basePackage(String target) {
+    int at = target.indexOf('@');
+    return at > 0 ? target.substring(0, at) : target;
+  }
 
-      appList.add(new HideAppInfo(pkg, appName, isSystemApp));
-    }
+  private void loadApps() {
+    appList.clear();
+    appList.addAll(manualRows);
     adapter.notifyDataSetChanged();
+    appLoader.load(isShowSystemApps, basePackage(targetPackage), new AppListLoader.Listener() {
+      private Set<String> saved;
+
+      @Override
+      public void onPrepare() {
+        // 已保存的隐藏规则只读一次，切换显示系统应用时保留未保存的勾选
+        if (!selectionLoaded) {
+          saved = new HashSet<>();
+          for (HideAppSystemDbHelper.HideAppInfo info : dbHelper.getHideAppsForTarget(targetPackage)) {
+            saved.add(info.packageName);
+          }
+        }
+      }
+
+      private void applySaved() {
+        if (saved != null && !selectionLoaded) {
+          selectedPackages.addAll(saved);
+          selectionLoaded = true;
+          // 前缀规则不对应已安装的应用，单独列在最前面
+          for (String pkg : saved) {
+            if (PackageSet.isPattern(pkg)) {
+              HideAppInfo appInfo = manualRow(pkg);
+              manualRows.add(appInfo);
+              appList.add(0, appInfo);
+            }
+          }
+        }
+      }
+
+      @Override
+      public void onBatch(List<AppListLoader.Entry> batch) {
+        applySaved();
+        for (AppListLoader.Entry entry : batch) {
+          if (isManualRow(entry.packageName))
+            continue;
+          appList.add(new HideAppInfo(entry.packageName, entry.appName, entry.isSystemApp));
+        }
+        adapter.notifyDataSetChanged();
+      }
+
+      @Override
+      public void onFinish(int count) {
+        applySaved();
+        adapter.notifyDataSetChanged();
+      }
+
+      @Override
+      public void onError(String message) {
+        applySaved();
+        Toast.makeText(AppDetailActivity.this, message, Toast.LENGTH_SHORT).show();
+      }
+    });
   }
 
   // 自定义适配器
   private class AppAdapter extends BaseAdapter {
-    private final PackageManager pm = getPackageManager();
+    private final IconLoader iconLoader = IconLoader.get(getApplicationContext());
 
     @Override
     public int getCount() {
@@ -173,11 +261,7 @@ public class AppDetailActivity extends Activity {
       }
       HideAppInfo appInfo = appList.get(position);
       holder.textView.setText(appInfo.displayText);
-      try {
-        holder.imageView.setImageDrawable(pm.getApplicationIcon(appInfo.packageName));
-      } catch (PackageManager.NameNotFoundException e) {
-        holder.imageView.setImageDrawable(null);
-      }
+      iconLoader.load(holder.imageView, appInfo.packageName);
       boolean isSelected = selectedPackages.contains(appInfo.packageName);
       holder.checkBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
         if (isChecked) {
@@ -198,6 +282,11 @@ public class AppDetailActivity extends Activity {
   }
 
   private void saveAndFinish() {
+    if (!selectionLoaded) {
+      // 规则还没读完，保存会清掉已有的规则
+      finish();
+      return;
+    }
     // 保存隐藏规则到数据库
     List<HideAppSystemDbHelper.HideAppInfo> hideApps = new ArrayList<>();
     for (String packageName : selectedPackages) {
@@ -222,4 +311,11 @@ public class AppDetailActivity extends Activity {
   public void onBackPressed() {
     saveAndFinish();
   }
+
+  @Override
+  protected void onDestroy() {
+    if (appLoader != null)
+      appLoader.shutdown();
+    super.onDestroy();
+  }
 }
@@ -16,7 +16,7 @@
 
 package qing.albatross.plugin.sys;
 
-import java.util.List;
+import android.os.Process;
 
 import qing.albatross.annotation.DefOption;
 import qing.albatross.annotation.FuzzyMatch;
@@ -25,6 +25,10 @@ import qing.albatross.annotation.MethodHookBackup;
 import qing.albatross.annotation.TargetClass;
 import qing.albatross.core.Albatross;
 import qing.albatross.exception.AlbatrossErr;
+import qing.albatross.plugin.rule.AppIdSet;
+import qing.albatross.plugin.rule.HideRules;
+import qing.albatross.plugin.rule.HookStats;
+import qing.albatross.plugin.rule.TargetRule;
 
 @TargetClass(className = "com.android.server.pm.AppsFilterBase")
 public class AppsFilterBaseH {
@@ -39,39 +43,75 @@ public class AppsFilterBaseH {
   static class PackageStateInternal {
     @MethodBackup(option = DefOption.VIRTUAL)
     private static native Object getPkg(Object self);
+
+    @MethodBackup(option = DefOption.VIRTUAL)
+    private static native int getAppId(Object self);
   }
 
   static Boolean initHook;
 
+  static final DecisionCache decisionCache = new DecisionCache();
+
+  private static final HookStats SHOULD_FILTER = HookStats.create("AppsFilterBase.shouldFilterApplication");
+
 
   @MethodHookBackup
   private boolean shouldFilterApplication(@FuzzyMatch Object snapshot, int callingUid,
                                           Object callingSetting, @FuzzyMatch Object targetPkgSetting, int userId) {
 
     if (targetPkgSetting != null) {
-      List<String> pkgs = HideAppSystemPlugin.hideRules.get(callingUid);
-      if (pkgs != null) {
-        if (!Albatross.isHooked(PackageStateInternal.class)) {
-          try {
-            Albatross.hookObject(PackageStateInternal.class, targetPkgSetting);
-            Object pkg = PackageStateInternal.getPkg(targetPkgSetting);
-            Albatross.hookObject(PackageImpl.class, pkg);
-            String target = PackageImpl.getPackageName(pkg);
-            initHook = true;
-          } catch (AlbatrossErr e) {
-            initHook = false;
-          }
-        }
-        if (initHook) {
-          Object pkg = PackageStateInternal.getPkg(targetPkgSetting);
-          String target = PackageImpl.getPackageName(pkg);
-          return pkgs.contains(target);
-        }
+      HideRules rules = HideAppSystemPlugin.rules();
+      TargetRule rule = rules.get(callingUid);
+      if (rule != null) {
+        long begin = HookStats.begin();
+        boolean hidden = isHidden(rules, rule, callingUid, targetPkgSetting);
+        SHOULD_FILTER.end(callingUid, begin);
+        if (hidden)
+          return true;
       }
     }
     return shouldFilterApplication(snapshot, callingUid, callingSetting, targetPkgSetting, userId);
   }
 
+  private static boolean isHidden(HideRules rules, TargetRule rule, int callingUid, Object targetPkgSetting) {
+    if (!Albatross.isHooked(PackageStateInternal.class)) {
+      try {
+        Albatross.hookObject(PackageStateInternal.class, targetPkgSetting);
+        Object pkg = PackageStateInternal.getPkg(targetPkgSetting);
+        Albatross.hookObject(PackageImpl.class, pkg);
+        String target = PackageImpl.getPackageName(pkg);
+        initHook = true;
+      } catch (AlbatrossErr e) {
+        initHook = false;
+      }
+    }
+    if (!initHook)
+      return false;
+    int appId = PackageStateInternal.getAppId(targetPkgSetting);
+    // 调用方自身总是可见，前缀规则和共享uid的包不经过appId位图
+    if (appId == AppIdSet.appId(callingUid))
+      return false;
+    if (rule.appIds.contains(appId))
+      return true;
+    return !rule.unresolved.isEmpty() && isUnresolvedHidden(rules, rule, callingUid, appId, targetPkgSetting);
+  }
+
+  /**
+   * 规则中未解析出appId的包只能按包名判断，结果按(callingUid, appId)缓存
+   */
+  private static boolean isUnresolvedHidden(HideRules rules, TargetRule rule, int callingUid, int appId, Object targetPkgSetting) {
+    // 系统共享uid下有多个包，不能按appId缓存
+    boolean cacheable = appId >= Process.FIRST_APPLICATION_UID;
+    int decision = cacheable ? decisionCache.get(rules, callingUid, appId) : DecisionCache.MISS;
+    if (decision != DecisionCache.MISS)
+      return decision == 1;
+    Object pkg = PackageStateInternal.getPkg(targetPkgSetting);
+    boolean hidden = rule.unresolved.contains(PackageImpl.getPackageName(pkg));
+    if (cacheable)
+      decisionCache.put(rules, callingUid, appId, hidden);
+    return hidden;
+  }
+
 }
 
 
@@ -19,30 +19,31 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.ResolveInfo;
+import android.os.Binder;
 
 import java.util.List;
 
 import qing.albatross.annotation.MethodHookBackup;
 import qing.albatross.annotation.TargetClass;
+import qing.albatross.plugin.rule.HookStats;
 
+/**
+ * ComputerEngine是PMS各查询接口的实际实现，在这一层过滤可覆盖所有binder入口
+ */
 @TargetClass(className = "com.android.server.pm.ComputerEngine", required = false)
 public class ComputerEngineH {
 
+  private static final HookStats INSTALLED_APPLICATIONS = HookStats.create("ComputerEngine.getInstalledApplications");
+  private static final HookStats POST_RESOLUTION = HookStats.create("ComputerEngine.applyPostResolutionFilter");
+  private static final HookStats PACKAGE_INFO = HookStats.create("ComputerEngine.getPackageInfoInternalBody");
+  private static final HookStats APPLICATION_INFO = HookStats.create("ComputerEngine.getApplicationInfoInternal");
+  private static final HookStats PACKAGES_FOR_UID = HookStats.create("ComputerEngine.getPackagesForUidInternal");
+  private static final HookStats NAME_FOR_UID = HookStats.create("ComputerEngine.getNameForUid");
+  private static final HookStats PACKAGE_UID = HookStats.create("ComputerEngine.getPackageUidInternal");
 
   @MethodHookBackup
   private List<ApplicationInfo> getInstalledApplications(long flags, int userId, int callingUid) {
-    List<ApplicationInfo> result = getInstalledApplications(flags, userId, callingUid);
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(callingUid);
-    if (hideApps == null)
-      return result;
-    for (int i = result.size() - 1; i >= 0; i--) {
-      final ApplicationInfo info = result.get(i);
-      String packageName = info.packageName;
-      if (hideApps.contains(packageName)) {
-        result.remove(i);
-      }
-    }
-    return result;
+    return ResultFilters.list(INSTALLED_APPLICATIONS, getInstalledApplications(flags, userId, callingUid), callingUid, PackageGetters.APPLICATION_INFO);
   }
 
   @MethodHookBackup
@@ -50,31 +51,36 @@ public class ComputerEngineH {
       List<ResolveInfo> resolveInfos, String ephemeralPkgName, boolean allowDynamicSplits, int filterCallingUid,
       boolean resolveForStart, int userId, Intent intent) {
     List<ResolveInfo> result = applyPostResolutionFilter(resolveInfos, ephemeralPkgName, allowDynamicSplits, filterCallingUid, resolveForStart, userId, intent);
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(filterCallingUid);
-    if (hideApps == null)
-      return result;
-    for (int i = resolveInfos.size() - 1; i >= 0; i--) {
-      final ResolveInfo info = resolveInfos.get(i);
-      String packageName = PackageManagerServiceH.ResolveInfoH.getComponentInfo(info).packageName;
-      if (hideApps.contains(packageName)) {
-        resolveInfos.remove(i);
-      }
-    }
-    return result;
+    return ResultFilters.list(POST_RESOLUTION, result, filterCallingUid, PackageGetters.RESOLVE_INFO);
   }
 
   @MethodHookBackup
   private PackageInfo getPackageInfoInternalBody(String packageName, long versionCode,
                                                  long flags, int filterCallingUid, int userId) {
     PackageInfo packageInfo = getPackageInfoInternalBody(packageName, versionCode, flags, filterCallingUid, userId);
-    if (packageInfo != null) {
-      List<String> hideApps = HideAppSystemPlugin.hideRules.get(filterCallingUid);
-      if (hideApps != null && hideApps.contains(packageName))
-        return null;
-    }
-    return packageInfo;
+    return ResultFilters.one(PACKAGE_INFO, packageInfo, filterCallingUid, PackageGetters.PACKAGE_INFO);
+  }
+
+  @MethodHookBackup
+  private ApplicationInfo getApplicationInfoInternal(String packageName, long flags,
+                                                     int filterCallingUid, int userId) {
+    ApplicationInfo info = getApplicationInfoInternal(packageName, flags, filterCallingUid, userId);
+    return ResultFilters.one(APPLICATION_INFO, info, filterCallingUid, PackageGetters.APPLICATION_INFO);
+  }
 
+  @MethodHookBackup
+  private String[] getPackagesForUidInternal(int uid, int callingUid) {
+    return ResultFilters.packagesForUid(PACKAGES_FOR_UID, getPackagesForUidInternal(uid, callingUid), uid, callingUid);
   }
 
+  @MethodHookBackup
+  private String getNameForUid(int uid) {
+    return ResultFilters.name(NAME_FOR_UID, getNameForUid(uid), uid, Binder.getCallingUid());
+  }
+
+  @MethodHookBackup
+  private int getPackageUidInternal(String packageName, long flags, int userId, int callingUid) {
+    return ResultFilters.uid(PACKAGE_UID, getPackageUidInternal(packageName, flags, userId, callingUid), packageName, callingUid);
+  }
 
 }
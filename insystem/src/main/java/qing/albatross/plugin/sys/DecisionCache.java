@@ -0,0 +1,78 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.sys;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import qing.albatross.plugin.rule.HideRules;
+
+/**
+ * (callingUid, appId) -> 是否隐藏 的定长直接映射缓存。
+ * 每个槽位用一个long同时保存key和结果，读写无锁；规则generation变化或包安装/卸载时整表丢弃。
+ * generation取自hook本次调用读到的规则快照，与判断所用的规则一致，不单独读取当前generation
+ */
+final class DecisionCache {
+
+  static final int MISS = -1;
+  private static final int SLOTS = 1024;
+
+  private static final class Table {
+    final long generation;
+    final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+
+    Table(long generation) {
+      this.generation = generation;
+    }
+  }
+
+  private volatile Table table = new Table(HideRules.EMPTY.generation);
+
+  private Table table(HideRules rules) {
+    Table t = table;
+    if (t.generation != rules.generation) {
+      t = new Table(rules.generation);
+      table = t;
+    }
+    return t;
+  }
+
+  private static int index(int callingUid, int appId) {
+    int h = callingUid * 0x9E3779B9 + appId;
+    return (h ^ (h >>> 16)) & (SLOTS - 1);
+  }
+
+  private static long key(int callingUid, int appId) {
+    return ((long) callingUid << 32) | ((long) appId << 2) | 1;
+  }
+
+  /**
+   * @return 1隐藏，0不隐藏，{@link #MISS}未缓存
+   */
+  int get(HideRules rules, int callingUid, int appId) {
+    long entry = table(rules).slots.get(index(callingUid, appId));
+    if ((entry & ~2L) != key(callingUid, appId))
+      return MISS;
+    return (int) (entry >>> 1) & 1;
+  }
+
+  void put(HideRules rules, int callingUid, int appId, boolean hidden) {
+    table(rules).slots.lazySet(index(callingUid, appId), key(callingUid, appId) | (hidden ? 2 : 0));
+  }
+
+  void invalidate() {
+    table = new Table(table.generation);
+  }
+}
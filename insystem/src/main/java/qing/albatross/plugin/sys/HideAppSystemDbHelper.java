@@ -22,19 +22,22 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import qing.albatross.plugin.applist.AppListLoader;
+
 /**
  * 数据库帮助类，用于存储隐藏应用系统插件的配置
  * 支持两级配置：目标应用 -> 要隐藏的应用列表
  */
-public class HideAppSystemDbHelper extends SQLiteOpenHelper {
+public class HideAppSystemDbHelper extends SQLiteOpenHelper implements AppListLoader.MetaStore {
     private static final String DB_NAME = "hide_app_system.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 2;
 
     // 目标应用表
     private static final String TABLE_TARGET_APPS = "target_apps";
@@ -47,6 +50,15 @@ public class HideAppSystemDbHelper extends SQLiteOpenHelper {
     private static final String COL_HIDE_PACKAGE = "hide_package";
     private static final String COL_HIDE_NAME = "hide_name";
 
+    // 应用名称和图标缓存表，版本2新增
+    private static final String TABLE_APP_META = "app_meta";
+    private static final String COL_META_PACKAGE = "package_name";
+    private static final String COL_UPDATE_TIME = "update_time";
+    private static final String COL_VERSION_CODE = "version_code";
+    private static final String COL_LOCALE = "locale";
+    private static final String COL_LABEL = "label";
+    private static final String COL_ICON = "icon";
+
     public HideAppSystemDbHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
     }
@@ -68,13 +80,26 @@ public class HideAppSystemDbHelper extends SQLiteOpenHelper {
                 "PRIMARY KEY (" + COL_TARGET_PACKAGE + ", " + COL_HIDE_PACKAGE + "), " +
                 "FOREIGN KEY (" + COL_TARGET_PACKAGE + ") REFERENCES " + TABLE_TARGET_APPS + "(" + COL_TARGET_PACKAGE + ") ON DELETE CASCADE)";
         db.execSQL(createRulesTable);
+
+        createMetaTable(db);
+    }
+
+    private static void createMetaTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_APP_META + " (" +
+                COL_META_PACKAGE + " TEXT PRIMARY KEY, " +
+                COL_UPDATE_TIME + " INTEGER NOT NULL, " +
+                COL_VERSION_CODE + " INTEGER NOT NULL, " +
+                COL_LOCALE + " TEXT NOT NULL, " +
+                COL_LABEL + " TEXT NOT NULL, " +
+                COL_ICON + " BLOB)");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HIDE_RULES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TARGET_APPS);
-        onCreate(db);
+        // 只增加表，保留用户已配置的规则
+        if (oldVersion < 2) {
+            createMetaTable(db);
+        }
     }
 
     /**
@@ -106,6 +131,27 @@ public class HideAppSystemDbHelper extends SQLiteOpenHelper {
         db.insertWithOnConflict(TABLE_TARGET_APPS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
 
+    /**
+     * 在一个事务中添加或更新多个目标应用
+     */
+    public void saveTargetApps(Collection<TargetAppInfo> apps) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (TargetAppInfo app : apps) {
+                values.clear();
+                values.put(COL_TARGET_PACKAGE, app.packageName);
+                values.put(COL_TARGET_NAME, app.appName);
+                values.put(COL_IS_ENABLED, app.isEnabled ? 1 : 0);
+                db.insertWithOnConflict(TABLE_TARGET_APPS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * 删除目标应用及其所有规则
      */
@@ -199,6 +245,53 @@ public class HideAppSystemDbHelper extends SQLiteOpenHelper {
         return allRules;
     }
 
+    /**
+     * 读取应用名称和图标缓存
+     */
+    @Override
+    public Map<String, AppListLoader.Meta> loadAppMeta() {
+        Map<String, AppListLoader.Meta> metas = new HashMap<>();
+        SQLiteDatabase db = getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_APP_META,
+                new String[]{COL_META_PACKAGE, COL_UPDATE_TIME, COL_VERSION_CODE, COL_LOCALE, COL_LABEL, COL_ICON},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                String packageName = cursor.getString(0);
+                metas.put(packageName, new AppListLoader.Meta(packageName, cursor.getLong(1), cursor.getLong(2),
+                        cursor.getString(3), cursor.getString(4), cursor.isNull(5) ? null : cursor.getBlob(5)));
+            }
+        }
+        return metas;
+    }
+
+    /**
+     * 在一个事务中写入变化的缓存并删除已卸载应用的缓存
+     */
+    @Override
+    public void saveAppMeta(Collection<AppListLoader.Meta> changed, Collection<String> removed) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (AppListLoader.Meta meta : changed) {
+                values.clear();
+                values.put(COL_META_PACKAGE, meta.packageName);
+                values.put(COL_UPDATE_TIME, meta.updateTime);
+                values.put(COL_VERSION_CODE, meta.versionCode);
+                values.put(COL_LOCALE, meta.locale);
+                values.put(COL_LABEL, meta.label);
+                values.put(COL_ICON, meta.icon);
+                db.insertWithOnConflict(TABLE_APP_META, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            for (String packageName : removed) {
+                db.delete(TABLE_APP_META, COL_META_PACKAGE + " = ?", new String[]{packageName});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * 目标应用信息
      */
@@ -15,24 +15,34 @@
  */
 package qing.albatross.plugin.sys;
 
+import android.Manifest;
 import android.app.Application;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import qing.albatross.agent.AlbatrossPlugin;
 import qing.albatross.core.Albatross;
+import qing.albatross.plugin.rule.HideRules;
+import qing.albatross.plugin.rule.HookStats;
+import qing.albatross.plugin.rule.RuleCodec;
+import qing.albatross.plugin.rule.SpanRing;
 
 public class HideAppSystemPlugin extends AlbatrossPlugin {
 
+  /**
+   * 控制命令走单独的广播，不经过会被宿主持久化的plugin_params，只接受持有DUMP权限的发送方，如
+   * adb shell am broadcast -a qing.albatross.plugin.sys.COMMAND --es command dump
+   */
+  static final String ACTION_COMMAND = "qing.albatross.plugin.sys.COMMAND";
+  static final String EXTRA_COMMAND = "command";
 
   public HideAppSystemPlugin(String libName, String argString, int flags) {
     super(libName, argString, flags);
-    hideRules = new HashMap<>();
   }
 
   @Override
@@ -43,44 +53,71 @@ public class HideAppSystemPlugin extends AlbatrossPlugin {
   @Override
   public boolean load() {
     Albatross.log("HideAppSystemPlugin load");
-    return super.load();
+    long begin = SpanRing.begin();
+    boolean loaded = super.load();
+    SpanRing.STARTUP.end("load", begin);
+    return loaded;
   }
 
   @Override
   public boolean parseParams(String hideRulesStr, int flags) {
-    hideRules.clear();
-    if (hideRulesStr != null) {
-      Application application = Albatross.currentApplication();
-      PackageManager packageManager = application.getPackageManager();
-      Albatross.log("begin parse rule:" + hideRulesStr);
-      String[] ruleEntries = hideRulesStr.split("\\|");
-      for (String entry : ruleEntries) {
-        String[] parts = entry.split(":");
-        if (parts.length != 2) {
-          Albatross.log("Invalid rule entry: " + entry);
-          continue;
-        }
-        String pkg = parts[0];
-        try {
-          PackageInfo packageInfo = packageManager.getPackageInfo(pkg, 0);
-          String[] rules = parts[1].split(",");
-          List<String> ruleList = new ArrayList<>();
-          for (String rule : rules) {
-            if (!rule.isEmpty()) {
-              ruleList.add(rule);
-            }
-          }
-          int uid = packageInfo.applicationInfo.uid;
-          hideRules.put(uid, ruleList);
-          Albatross.log(pkg + " add rule:" + ruleList);
-        } catch (PackageManager.NameNotFoundException e) {
-          Albatross.log("Package not found: " + pkg);
-        }
-      }
+    if (isCommand(hideRulesStr)) {
+      // 旧版本通过plugin_params发送的命令可能被宿主持久化，不能当作规则清空现有规则
+      Albatross.log("ignore command in params:" + hideRulesStr);
+      return true;
     }
+    if (hideRulesStr != null)
+      Albatross.log("begin parse rule:" + hideRulesStr);
+    long begin = SpanRing.begin();
+    publish(compiler.compile(RuleCompiler.parse(hideRulesStr)));
+    SpanRing.STARTUP.end("parse", begin);
     return true;
   }
 
+  @Override
+  public void onConfigChange(String config, int flags) {
+    if (RuleCodec.isDelta(config)) {
+      applyDelta(config, flags);
+      return;
+    }
+    super.onConfigChange(config, flags);
+  }
+
+  /**
+   * 当前规则是增量的基准时只编译增量中的目标，否则按增量携带的完整规则重新解析。
+   * params只保存完整规则
+   */
+  private void applyDelta(String config, int flags) {
+    RuleCodec.Delta delta;
+    try {
+      delta = RuleCodec.decodeDelta(config);
+    } catch (IllegalArgumentException e) {
+      Albatross.log("Invalid rule delta: " + config, e);
+      return;
+    }
+    params = delta.full;
+    this.flags = flags;
+    if (!enable)
+      return;
+    long begin = SpanRing.begin();
+    HideRules rules = compiler.applyDelta(delta);
+    if (rules == null) {
+      Albatross.log("rule delta base mismatch, reload full rules");
+      rules = compiler.compile(RuleCompiler.parse(delta.full));
+    }
+    publish(rules);
+    SpanRing.STARTUP.end("apply delta", begin);
+  }
+
+  private static final RuleCompiler compiler = new RuleCompiler();
+
+  static void onPackageChanged(String pkg) {
+    HideRules rules = compiler.invalidatePackage(pkg);
+    if (rules != null)
+      publish(rules);
+    AppsFilterBaseH.decisionCache.invalidate();
+  }
+
   @Override
   public void beforeApplicationCreate(Application application) {
     Albatross.log("HideAppSystemPlugin beforeApplicationCreate");
@@ -91,13 +128,103 @@ public class HideAppSystemPlugin extends AlbatrossPlugin {
     Albatross.log("HideAppSystemPlugin afterApplicationCreate");
   }
 
-  public static Map<Integer, List<String>> hideRules;
+  private static final AtomicReference<HideRules> hideRules = new AtomicReference<>(HideRules.EMPTY);
+
+  /**
+   * 当前生效的规则快照，hook在一次调用内只应读取一次
+   */
+  static HideRules rules() {
+    return hideRules.get();
+  }
+
+  /**
+   * 整体替换规则快照，并发重载时旧generation的结果不会覆盖新的
+   */
+  static boolean publish(HideRules rules) {
+    while (true) {
+      HideRules current = hideRules.get();
+      if (current.generation >= rules.generation) {
+        Albatross.log("drop stale rules generation:" + rules.generation + " current:" + current.generation);
+        return false;
+      }
+      if (hideRules.compareAndSet(current, rules)) {
+        Albatross.log("publish rules generation:" + rules.generation + " targets:" + rules.size());
+        return true;
+      }
+    }
+  }
 
 
   @Override
   public void onAttachSystem(Application application) {
-    if (!PackageManagerServiceH.initHook()) {
+    long begin = SpanRing.begin();
+    boolean hooked = PackageManagerServiceH.initHook();
+    SpanRing.STARTUP.end("install hooks", begin);
+    if (!hooked) {
       Albatross.log("init hook err");
+      return;
+    }
+    registerPackageReceiver(application);
+    registerCommandReceiver(application);
+    Albatross.log(SpanRing.STARTUP.dump());
+  }
+
+  private static boolean isCommand(String config) {
+    return SpanRing.DUMP_COMMAND.equals(config)
+        || HookStats.ENABLE_COMMAND.equals(config) || HookStats.DISABLE_COMMAND.equals(config);
+  }
+
+  static void onCommand(String command) {
+    if (SpanRing.DUMP_COMMAND.equals(command)) {
+      Albatross.log(SpanRing.STARTUP.dump());
+      Albatross.log(HookStats.dumpAll(5));
+    } else if (HookStats.ENABLE_COMMAND.equals(command) || HookStats.DISABLE_COMMAND.equals(command)) {
+      HookStats.setEnabled(HookStats.ENABLE_COMMAND.equals(command));
+      Albatross.log("hook stats enabled:" + HookStats.isEnabled());
+    } else {
+      Albatross.log("unknown command:" + command);
+    }
+  }
+
+  private static void registerCommandReceiver(Application application) {
+    IntentFilter filter = new IntentFilter(ACTION_COMMAND);
+    BroadcastReceiver receiver = new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        String command = intent.getStringExtra(EXTRA_COMMAND);
+        if (command != null)
+          onCommand(command);
+      }
+    };
+    try {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+        application.registerReceiver(receiver, filter, Manifest.permission.DUMP, null, Context.RECEIVER_EXPORTED);
+      else
+        application.registerReceiver(receiver, filter, Manifest.permission.DUMP, null);
+    } catch (Exception e) {
+      Albatross.log("register command receiver err", e);
+    }
+  }
+
+  /**
+   * 包安装/卸载后appId可能变化或被复用，需要重新解析相关规则并丢弃按appId缓存的结果
+   */
+  private static void registerPackageReceiver(Application application) {
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+    filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+    filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+    filter.addDataScheme("package");
+    try {
+      application.registerReceiver(new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          if (intent.getData() != null)
+            onPackageChanged(intent.getData().getSchemeSpecificPart());
+        }
+      }, filter);
+    } catch (Exception e) {
+      Albatross.log("register package receiver err", e);
     }
   }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.sys;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.ResolveInfo;
+
+import qing.albatross.plugin.rule.ListFilter;
+
+/**
+ * system_server中各种结果类型的包名/uid提取器，带上uid后规则可直接按appId判断。
+ * 高于minSdk的结果类型的提取器放在对应的hook类中，随hook一起按版本注册
+ */
+final class PackageGetters {
+
+  static final ListFilter.PackageGetter<ApplicationInfo> APPLICATION_INFO = new ListFilter.PackageGetter<ApplicationInfo>() {
+    @Override
+    public String getPackageName(ApplicationInfo object) {
+      return object.packageName;
+    }
+
+    @Override
+    public int getUid(ApplicationInfo object) {
+      return object.uid;
+    }
+  };
+
+  static final ListFilter.PackageGetter<PackageInfo> PACKAGE_INFO = new ListFilter.PackageGetter<PackageInfo>() {
+    @Override
+    public String getPackageName(PackageInfo object) {
+      return object.packageName;
+    }
+
+    @Override
+    public int getUid(PackageInfo object) {
+      ApplicationInfo info = object.applicationInfo;
+      return info != null ? info.uid : -1;
+    }
+  };
+
+  static final ListFilter.PackageGetter<ResolveInfo> RESOLVE_INFO = new ListFilter.PackageGetter<ResolveInfo>() {
+    @Override
+    public String getPackageName(ResolveInfo object) {
+      return PackageManagerServiceH.ResolveInfoH.getComponentInfo(object).packageName;
+    }
+
+    @Override
+    public int getUid(ResolveInfo object) {
+      ComponentInfo info = PackageManagerServiceH.ResolveInfoH.getComponentInfo(object);
+      return info.applicationInfo != null ? info.applicationInfo.uid : -1;
+    }
+  };
+
+  private PackageGetters() {
+  }
+}
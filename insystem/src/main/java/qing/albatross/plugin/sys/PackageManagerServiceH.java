@@ -15,13 +15,16 @@
  */
 package qing.albatross.plugin.sys;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.ComponentInfo;
+import android.content.pm.ModuleInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.ResolveInfo;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Parcelable;
 
 import java.util.List;
@@ -33,6 +36,10 @@ import qing.albatross.annotation.MethodHookBackup;
 import qing.albatross.annotation.TargetClass;
 import qing.albatross.core.Albatross;
 import qing.albatross.exception.AlbatrossErr;
+import qing.albatross.plugin.rule.AppIdSet;
+import qing.albatross.plugin.rule.HookStats;
+import qing.albatross.plugin.rule.ListFilter;
+import qing.albatross.plugin.rule.TargetRule;
 
 @TargetClass(className = "com.android.server.pm.PackageManagerService", required = false)
 public class PackageManagerServiceH {
@@ -40,6 +47,11 @@ public class PackageManagerServiceH {
 
   static Boolean isInit;
 
+  private static final HookStats POST_RESOLUTION = HookStats.create("PackageManagerService.applyPostResolutionFilter");
+  private static final HookStats FILTER_APP_ACCESS = HookStats.create("PackageManagerService.filterAppAccessLPr");
+  private static final HookStats INSTALLED_APPLICATIONS = HookStats.create("PackageManagerService.getInstalledApplicationsListInternal");
+  private static final HookStats INSTALLED_PACKAGES = HookStats.create("PackageManagerService.getInstalledPackages");
+
   static boolean initHook() {
     if (isInit != null)
       return isInit;
@@ -49,6 +61,9 @@ public class PackageManagerServiceH {
       count += Albatross.hookClass(ResolveInfoH.class);
       count += Albatross.hookClass(ComputerEngineH.class);
       count += Albatross.hookClass(AppsFilterBaseH.class);
+      // ModuleInfo是API 29加入的，更低的版本加载hook类会找不到该类
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        count += Albatross.hookClass(ModuleInfoProviderH.class);
       if (count > 1) {
         Albatross.transactionEnd(true);
         isInit = true;
@@ -69,6 +84,9 @@ public class PackageManagerServiceH {
     @FieldRef(option = DefOption.VIRTUAL)
     public String name;
 
+    @FieldRef(value = {"appId", "mAppId"}, option = DefOption.VIRTUAL, required = false)
+    public int appId;
+
   }
 
   @TargetClass(ResolveInfo.class)
@@ -79,42 +97,58 @@ public class PackageManagerServiceH {
   }
 
 
+  @TargetApi(Build.VERSION_CODES.Q)
+  @TargetClass(className = "com.android.server.pm.ModuleInfoProvider", required = false)
+  static class ModuleInfoProviderH {
+
+    private static final HookStats INSTALLED_MODULES = HookStats.create("ModuleInfoProvider.getInstalledModules");
+    private static final HookStats MODULE_INFO = HookStats.create("ModuleInfoProvider.getModuleInfo");
+
+    private static final ListFilter.PackageGetter<ModuleInfo> GETTER = new ListFilter.PackageGetter<ModuleInfo>() {
+      @Override
+      public String getPackageName(ModuleInfo object) {
+        return object.getPackageName();
+      }
+    };
+
+    @MethodHookBackup
+    private List<ModuleInfo> getInstalledModules(int flags) {
+      return ResultFilters.list(INSTALLED_MODULES, getInstalledModules(flags), Binder.getCallingUid(), GETTER);
+    }
+
+    @MethodHookBackup
+    private ModuleInfo getModuleInfo(String name, int flags) {
+      return ResultFilters.one(MODULE_INFO, getModuleInfo(name, flags), Binder.getCallingUid(), GETTER);
+    }
+  }
+
   @MethodHookBackup
   private List<ResolveInfo> applyPostResolutionFilter(List<ResolveInfo> resolveInfos,
                                                       String ephemeralPkgName, boolean allowDynamicSplits, int filterCallingUid,
                                                       boolean resolveForStart, int userId, Intent intent) {
     List<ResolveInfo> result = applyPostResolutionFilter(resolveInfos, ephemeralPkgName, allowDynamicSplits, filterCallingUid, resolveForStart, userId, intent);
-    if (result == null || result.isEmpty())
-      return result;
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(filterCallingUid);
-    if (hideApps == null)
-      return result;
-    for (int i = result.size() - 1; i >= 0; i--) {
-      final ResolveInfo info = result.get(i);
-      String packageName = ResolveInfoH.getComponentInfo(info).packageName;
-      if (hideApps.contains(packageName)) {
-        result.remove(i);
-      }
-    }
-    return result;
+    return ResultFilters.list(POST_RESOLUTION, result, filterCallingUid, PackageGetters.RESOLVE_INFO);
   }
 
   @MethodHookBackup
   private boolean filterAppAccessLPr(PackageSetting ps, int callingUid,
                                      ComponentName component, int componentType, int userId) {
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(callingUid);
-    if (hideApps == null) {
-      return filterAppAccessLPr(ps, callingUid, component, componentType, userId);
-    }
-    if (component != null) {
-      String packages = component.getPackageName();
-      return hideApps.contains(packages);
-    }
-    if (ps != null) {
-      String packages = ps.name;
-      return hideApps.contains(packages);
+    boolean hidden = false;
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule != null) {
+      long begin = HookStats.begin();
+      int appId = ps != null ? ps.appId : -1;
+      if (appId > 0 && appId == AppIdSet.appId(callingUid)) {
+        // 调用方自身总是可见
+        hidden = false;
+      } else if (component != null) {
+        hidden = rule.packages.contains(component.getPackageName());
+      } else if (ps != null) {
+        hidden = appId > 0 ? rule.matchesAppId(appId, ps.name) : rule.packages.contains(ps.name);
+      }
+      FILTER_APP_ACCESS.end(callingUid, begin);
     }
-    return filterAppAccessLPr(ps, callingUid, component, componentType, userId);
+    return hidden || filterAppAccessLPr(ps, callingUid, component, componentType, userId);
   }
 
   @TargetClass
@@ -128,36 +162,15 @@ public class PackageManagerServiceH {
   private List<ApplicationInfo> getInstalledApplicationsListInternal(int flags, int userId,
                                                                      int callingUid) {
     List<ApplicationInfo> result = getInstalledApplicationsListInternal(flags, userId, callingUid);
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(callingUid);
-    if (hideApps == null) {
-      return result;
-    }
-    for (int i = result.size() - 1; i >= 0; i--) {
-      final ApplicationInfo info = result.get(i);
-      String packageName = info.packageName;
-      if (hideApps.contains(packageName)) {
-        result.remove(i);
-      }
-    }
-    return result;
+    return ResultFilters.list(INSTALLED_APPLICATIONS, result, callingUid, PackageGetters.APPLICATION_INFO);
   }
 
   @MethodHookBackup
   private ParceledListSlice<PackageInfo> getInstalledPackages(int flags, int userId) {
     ParceledListSlice<PackageInfo> result = getInstalledPackages(flags, userId);
-    int callingUid = Binder.getCallingUid();
-    List<String> hideApps = HideAppSystemPlugin.hideRules.get(callingUid);
-    if (hideApps == null) {
-      return result;
-    }
-    List<PackageInfo> mList = result.mList;
-    for (int i = mList.size() - 1; i >= 0; i--) {
-      final PackageInfo info = mList.get(i);
-      String packageName = info.packageName;
-      if (hideApps.contains(packageName)) {
-        mList.remove(i);
-      }
-    }
+    if (result == null)
+      return null;
+    ResultFilters.list(INSTALLED_PACKAGES, result.mList, Binder.getCallingUid(), PackageGetters.PACKAGE_INFO);
     return result;
   }
 }
@@ -17,32 +17,52 @@ package qing.albatross.plugin.sys;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import qing.albatross.plugin.R;
+import qing.albatross.plugin.applist.AppListLoader;
+import qing.albatross.plugin.applist.IconLoader;
+import qing.albatross.plugin.rule.HideRules;
+import qing.albatross.plugin.rule.PackageSet;
+import qing.albatross.plugin.rule.RuleCodec;
 
 public class PluginConfigActivity extends Activity {
+  private static final String PREFS_NAME = "plugin_config";
+  /**
+   * 上次发送给插件的完整规则，作为下一次增量的基准
+   */
+  private static final String KEY_LAST_PARAMS = "last_params";
   private AppAdapter adapter;
   private final List<TargetAppInfo> appList = new ArrayList<>();
   private HideAppSystemDbHelper dbHelper;
+  private AppListLoader appLoader;
   private boolean isShowSystemApps = false;
+  private EditText editTextManualEntry;
+  /**
+   * 本次加载的全局、豁免和按用户生效的目标行是否已加入列表，这几行在已保存配置读完后才能生成
+   */
+  private boolean specialRowsAdded;
+  /**
+   * 尚未写入数据库的开关，离开界面、重新加载或保存时在一个事务中写入
+   */
+  private final Map<String, HideAppSystemDbHelper.TargetAppInfo> pendingToggles = new LinkedHashMap<>();
 
   private static class TargetAppInfo {
     String packageName;
@@ -66,6 +86,7 @@ public class PluginConfigActivity extends Activity {
     setContentView(R.layout.activity_plugin_config);
 
     dbHelper = new HideAppSystemDbHelper(this);
+    appLoader = new AppListLoader(this, dbHelper);
 
     ListView listView = findViewById(R.id.listViewApps);
     adapter = new AppAdapter();
@@ -79,55 +100,130 @@ public class PluginConfigActivity extends Activity {
       isShowSystemApps = isChecked;
       loadApps();
     });
-    loadApps();
+
+    editTextManualEntry = findViewById(R.id.editTextManualEntry);
+    Button buttonAddManualEntry = findViewById(R.id.buttonAddManualEntry);
+    buttonAddManualEntry.setOnClickListener(v -> addUserTarget());
   }
 
-  private void loadApps() {
-    PackageManager pm = getPackageManager();
-    Intent intent = new Intent(Intent.ACTION_MAIN);
-    intent.addCategory(Intent.CATEGORY_LAUNCHER);
-    List<ResolveInfo> resolveInfos;
-    try {
-      resolveInfos = pm.queryIntentActivities(intent, PackageManager.GET_META_DATA);
-    } catch (SecurityException e) {
-      Toast.makeText(this, "无法获取应用列表: 权限不足", Toast.LENGTH_SHORT).show();
-      return;
-    }
-    if (resolveInfos == null || resolveInfos.isEmpty()) {
-      Toast.makeText(this, "未找到可显示的应用", Toast.LENGTH_SHORT).show();
-      return;
+  /**
+   * 只对某个用户生效的目标写作pkg@userId，会覆盖该包在这个用户下的普通规则
+   */
+  private static boolean isUserTarget(String target) {
+    int at = target.indexOf('@');
+    if (at <= 0 || at == target.length() - 1)
+      return false;
+    String pkg = target.substring(0, at);
+    if (PackageSet.isPattern(pkg) || !PackageSet.isValidEntry(pkg))
+      return false;
+    for (int i = at + 1; i < target.length(); i++) {
+      char c = target.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
     }
+    return true;
+  }
 
-    appList.clear();
-    String selfPkg = getPackageName();
+  private static TargetAppInfo userTargetRow(String target, boolean isEnabled) {
+    int at = target.indexOf('@');
+    return new TargetAppInfo(target, target.substring(0, at) + " (用户 " + target.substring(at + 1) + ")",
+        false, isEnabled);
+  }
 
-    // 加载已保存的目标应用配置
-    Map<String, Boolean> savedConfigs = new HashMap<>();
-    for (HideAppSystemDbHelper.TargetAppInfo saved : dbHelper.getAllTargetApps()) {
-      savedConfigs.put(saved.packageName, saved.isEnabled);
+  private boolean isListed(String target) {
+    for (TargetAppInfo appInfo : appList) {
+      if (appInfo.packageName.equals(target))
+        return true;
     }
+    return false;
+  }
 
-    for (ResolveInfo info : resolveInfos) {
-      ApplicationInfo appInfo = info.activityInfo.applicationInfo;
-      String pkg = appInfo.packageName;
-      if (selfPkg.equals(pkg)) continue;
+  private void addUserTarget() {
+    String target = editTextManualEntry.getText().toString().trim();
+    if (!isUserTarget(target)) {
+      Toast.makeText(this, "格式错误：包名@用户ID", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    editTextManualEntry.setText("");
+    if (isListed(target))
+      return;
+    TargetAppInfo appInfo = userTargetRow(target, true);
+    // 放在全局规则和豁免名单之后，它们还没加入时先放在最前面
+    appList.add(specialRowsAdded ? 2 : 0, appInfo);
+    pendingToggles.put(target, new HideAppSystemDbHelper.TargetAppInfo(target, appInfo.appName, true));
+    adapter.notifyDataSetChanged();
+  }
+
+  private void flushToggles() {
+    if (pendingToggles.isEmpty())
+      return;
+    dbHelper.saveTargetApps(pendingToggles.values());
+    pendingToggles.clear();
+  }
+
+  private void loadApps() {
+    // 后台读取的已保存配置要包含刚才的修改
+    flushToggles();
+    appList.clear();
+    specialRowsAdded = false;
+    adapter.notifyDataSetChanged();
+    appLoader.load(isShowSystemApps, null, new AppListLoader.Listener() {
+      // 已保存的目标应用配置，在后台线程读取
+      private final Map<String, Boolean> savedConfigs = new TreeMap<>();
+
+      @Override
+      public void onPrepare() {
+        for (HideAppSystemDbHelper.TargetAppInfo saved : dbHelper.getAllTargetApps()) {
+          savedConfigs.put(saved.packageName, saved.isEnabled);
+        }
+      }
 
-      boolean isSystemApp = (appInfo.flags & (ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP)) != 0;
-      if (!isShowSystemApps && isSystemApp) continue;
+      // 全局规则、豁免名单和按用户生效的目标固定在列表最前面
+      private void addGlobalRows() {
+        if (specialRowsAdded)
+          return;
+        specialRowsAdded = true;
+        List<TargetAppInfo> rows = new ArrayList<>();
+        rows.add(new TargetAppInfo(HideRules.GLOBAL_TARGET, "全局隐藏", false,
+            savedConfigs.getOrDefault(HideRules.GLOBAL_TARGET, false)));
+        rows.add(new TargetAppInfo(HideRules.EXEMPT_TARGET, "全局豁免", false,
+            savedConfigs.getOrDefault(HideRules.EXEMPT_TARGET, false)));
+        for (Map.Entry<String, Boolean> saved : savedConfigs.entrySet()) {
+          // 加载完成前手动添加的目标已经在列表中
+          if (isUserTarget(saved.getKey()) && !isListed(saved.getKey()))
+            rows.add(userTargetRow(saved.getKey(), saved.getValue()));
+        }
+        appList.addAll(0, rows);
+      }
 
-      CharSequence label = info.loadLabel(pm);
-      String appName = label != null ? label.toString() : pkg;
-      boolean isEnabled = savedConfigs.getOrDefault(pkg, false);
+      @Override
+      public void onBatch(List<AppListLoader.Entry> batch) {
+        addGlobalRows();
+        for (AppListLoader.Entry entry : batch) {
+          boolean isEnabled = savedConfigs.getOrDefault(entry.packageName, false);
+          appList.add(new TargetAppInfo(entry.packageName, entry.appName, entry.isSystemApp, isEnabled));
+        }
+        adapter.notifyDataSetChanged();
+      }
 
-      appList.add(new TargetAppInfo(pkg, appName, isSystemApp, isEnabled));
-    }
+      @Override
+      public void onFinish(int count) {
+        addGlobalRows();
+        adapter.notifyDataSetChanged();
+      }
 
-    adapter.notifyDataSetChanged();
+      @Override
+      public void onError(String message) {
+        addGlobalRows();
+        adapter.notifyDataSetChanged();
+        Toast.makeText(PluginConfigActivity.this, message, Toast.LENGTH_SHORT).show();
+      }
+    });
   }
 
   // 自定义适配器
   private class AppAdapter extends BaseAdapter {
-    private final PackageManager pm = getPackageManager();
+    private final IconLoader iconLoader = IconLoader.get(getApplicationContext());
 
     @Override
     public int getCount() {
@@ -161,18 +257,18 @@ public class PluginConfigActivity extends Activity {
       TargetAppInfo appInfo = appList.get(position);
       holder.textView.setText(appInfo.displayText);
 
-      try {
-        holder.imageView.setImageDrawable(pm.getApplicationIcon(appInfo.packageName));
-      } catch (PackageManager.NameNotFoundException e) {
-        holder.imageView.setImageDrawable(null);
-      }
+      iconLoader.load(holder.imageView, appInfo.packageName);
 
+      // 先移除复用行上的监听，避免setChecked触发上一行的修改
+      holder.checkBox.setOnCheckedChangeListener(null);
+      holder.checkBox.setChecked(appInfo.isEnabled);
       holder.checkBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
+        if (appInfo.isEnabled == isChecked)
+          return;
         appInfo.isEnabled = isChecked;
-        // 实时保存到数据库
-        dbHelper.saveTargetApp(appInfo.packageName, appInfo.appName, isChecked);
+        pendingToggles.put(appInfo.packageName,
+            new HideAppSystemDbHelper.TargetAppInfo(appInfo.packageName, appInfo.appName, isChecked));
       });
-      holder.checkBox.setChecked(appInfo.isEnabled);
       // 点击列表项进入详细配置
       convertView.setOnClickListener(v -> {
         Intent intent = new Intent(PluginConfigActivity.this, AppDetailActivity.class);
@@ -191,25 +287,27 @@ public class PluginConfigActivity extends Activity {
   }
 
   private void saveAndFinish() {
+    flushToggles();
     // 获取所有启用的目标应用及其隐藏规则
     Map<String, List<String>> allRules = dbHelper.getAllRules();
 
     Intent result = new Intent();
     result.putExtra("plugin_class", this.getClass().getName().replace("PluginConfigActivity", "HideAppSystemPlugin"));
 
-    // 将规则转换为字符串格式存储
-    StringBuilder rulesBuilder = new StringBuilder();
-    for (Map.Entry<String, List<String>> entry : allRules.entrySet()) {
-      if (!rulesBuilder.toString().isEmpty()) {
-        rulesBuilder.append("|");
-      }
-      rulesBuilder.append(entry.getKey()).append(":");
-      for (int i = 0; i < entry.getValue().size(); i++) {
-        if (i > 0) rulesBuilder.append(",");
-        rulesBuilder.append(entry.getValue().get(i));
+    // 将规则编码为紧凑格式；有上次发送的规则时改发增量，增量携带完整规则，宿主持久化后下次启动不会丢失
+    String full = RuleCodec.encode(allRules);
+    String params = full;
+    SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+    String lastParams = prefs.getString(KEY_LAST_PARAMS, null);
+    if (lastParams != null) {
+      try {
+        params = RuleCodec.encodeDelta(RuleCodec.decode(lastParams), allRules);
+      } catch (IllegalArgumentException e) {
+        // 基准损坏时直接发送完整规则
       }
     }
-    result.putExtra("plugin_params", rulesBuilder.toString());
+    prefs.edit().putString(KEY_LAST_PARAMS, full).apply();
+    result.putExtra("plugin_params", params);
     setResult(RESULT_OK, result);
     finish();
   }
@@ -224,4 +322,16 @@ public class PluginConfigActivity extends Activity {
     super.onResume();
     loadApps();
   }
+
+  @Override
+  protected void onPause() {
+    flushToggles();
+    super.onPause();
+  }
+
+  @Override
+  protected void onDestroy() {
+    appLoader.shutdown();
+    super.onDestroy();
+  }
 }
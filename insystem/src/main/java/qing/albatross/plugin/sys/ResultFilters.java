@@ -0,0 +1,126 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.sys;
+
+import java.util.List;
+
+import qing.albatross.plugin.rule.HookStats;
+import qing.albatross.plugin.rule.ListFilter;
+import qing.albatross.plugin.rule.TargetRule;
+
+/**
+ * hook中过滤返回值的公共入口，按结果形态分为单个对象、列表、包名数组和uid。
+ * 新增需要过滤的接口时，hook只需调用原方法后把结果交给对应方法，
+ * 需要新的结果类型时在{@link PackageGetters}中加一个提取器。
+ * 每个hook传入自己的{@link HookStats}，只统计插件附加逻辑的耗时；
+ * 调用方没有规则时直接返回，不查询也不统计；
+ * 所有判断都带上callingUid，调用方自己的包总是可见
+ */
+final class ResultFilters {
+
+  private ResultFilters() {
+  }
+
+  /**
+   * @return 被隐藏时返回null，否则原样返回
+   */
+  static <T> T one(HookStats stats, T result, int callingUid, ListFilter.PackageGetter<T> getter) {
+    if (result == null)
+      return null;
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule == null)
+      return result;
+    long begin = HookStats.begin();
+    boolean hidden = rule.matches(getter.getPackageName(result), getter.getUid(result), callingUid);
+    stats.end(callingUid, begin);
+    return hidden ? null : result;
+  }
+
+  static <T> List<T> list(HookStats stats, List<T> result, int callingUid, ListFilter.PackageGetter<T> getter) {
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule == null)
+      return result;
+    long begin = HookStats.begin();
+    ListFilter.filter(result, rule, getter, callingUid);
+    stats.end(callingUid, begin);
+    return result;
+  }
+
+  /**
+   * 同一uid下的包名，uid本身被隐藏时返回null，共享uid时逐个按包名过滤
+   */
+  static String[] packagesForUid(HookStats stats, String[] packages, int uid, int callingUid) {
+    if (packages == null || packages.length == 0)
+      return packages;
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule == null)
+      return packages;
+    long begin = HookStats.begin();
+    String[] visible = visiblePackages(packages, uid, callingUid, rule);
+    stats.end(callingUid, begin);
+    return visible;
+  }
+
+  private static String[] visiblePackages(String[] packages, int uid, int callingUid, TargetRule rule) {
+    int count = 0;
+    for (String pkg : packages) {
+      if (!rule.matches(pkg, uid, callingUid))
+        count++;
+    }
+    if (count == packages.length)
+      return packages;
+    if (count == 0)
+      return null;
+    String[] visible = new String[count];
+    count = 0;
+    for (String pkg : packages) {
+      if (!rule.matches(pkg, uid, callingUid))
+        visible[count++] = pkg;
+    }
+    return visible;
+  }
+
+  /**
+   * @param packageName 结果对应的包名，uid由原方法返回
+   * @return 被隐藏时返回-1
+   */
+  static int uid(HookStats stats, int uid, String packageName, int callingUid) {
+    if (uid < 0)
+      return uid;
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule == null)
+      return uid;
+    long begin = HookStats.begin();
+    boolean hidden = rule.matches(packageName, uid, callingUid);
+    stats.end(callingUid, begin);
+    return hidden ? -1 : uid;
+  }
+
+  /**
+   * @return 包名被隐藏时返回null
+   */
+  static String name(HookStats stats, String packageName, int uid, int callingUid) {
+    if (packageName == null)
+      return null;
+    TargetRule rule = HideAppSystemPlugin.rules().get(callingUid);
+    if (rule == null)
+      return packageName;
+    long begin = HookStats.begin();
+    boolean hidden = rule.matches(packageName, uid, callingUid);
+    stats.end(callingUid, begin);
+    return hidden ? null : packageName;
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.sys;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import qing.albatross.core.Albatross;
+import qing.albatross.plugin.rule.AppIdSet;
+import qing.albatross.plugin.rule.HideRules;
+import qing.albatross.plugin.rule.PackageSet;
+import qing.albatross.plugin.rule.RuleCodec;
+import qing.albatross.plugin.rule.TargetRule;
+
+/**
+ * 规则编译器，保留上次编译的每个目标和包名解析结果。
+ * 配置变化时只重新编译有变化的目标，未变化的目标不再查询PMS。
+ * 收到增量时在当前规则上写时复制，只处理增量中的目标，构建好的规则在全局目标不变时也原样复用。
+ * 目标写作"pkg@userId"时只覆盖该用户，否则对所有用户生效。
+ * 以'*'结尾的隐藏规则是包名前缀通配，不查询PMS，只按包名判断，与应用内插件一样不匹配目标自己的包名。
+ * 目标"*"的规则对所有调用方生效，并合并进每个非豁免目标的规则；
+ * 目标"!"列出的调用方不受全局规则影响，被全局隐藏的应用看不到自己的问题由{@link HideRules}处理
+ */
+final class RuleCompiler {
+
+  private static final class Resolved {
+    final int appId;
+    final boolean sharedUser;
+
+    Resolved(int appId, boolean sharedUser) {
+      this.appId = appId;
+      this.sharedUser = sharedUser;
+    }
+  }
+
+  private static final Resolved NOT_FOUND = new Resolved(-1, false);
+
+  private static final class CompiledTarget {
+    final List<String> hidePackages;
+    final int key;
+    final boolean override;
+    /**
+     * 与hidePackages一一对应，-1表示只能按包名判断
+     */
+    final int[] hideAppIds;
+    /**
+     * 目标自己的包名，通配规则不匹配它，全局和豁免目标为null
+     */
+    final String selfPackage;
+    /**
+     * 上次构建的规则和当时合并进来的全局目标，全局目标不变时复用
+     */
+    TargetRule rule;
+    CompiledTarget mergedGlobal;
+
+    CompiledTarget(List<String> hidePackages, int key, boolean override, int[] hideAppIds, String selfPackage) {
+      this.hidePackages = hidePackages;
+      this.key = key;
+      this.override = override;
+      this.hideAppIds = hideAppIds;
+      this.selfPackage = selfPackage;
+    }
+  }
+
+  private long generation;
+  private Map<String, List<String>> source = new LinkedHashMap<>();
+  /**
+   * source的指纹，增量的基准与之相同才能应用
+   */
+  private long fingerprint = RuleCodec.fingerprint(source);
+  private Map<String, CompiledTarget> compiled = new HashMap<>();
+  private final Map<String, Resolved> resolved = new HashMap<>();
+  private PackageManager packageManager;
+
+  /**
+   * 解析配置界面生成的规则，兼容旧的文本格式
+   */
+  static Map<String, List<String>> parse(String rulesStr) {
+    try {
+      return RuleCodec.decode(rulesStr);
+    } catch (IllegalArgumentException e) {
+      Albatross.log("Invalid rules: " + rulesStr, e);
+      return new LinkedHashMap<>();
+    }
+  }
+
+  /**
+   * 用完整规则替换当前规则
+   */
+  synchronized HideRules compile(Map<String, List<String>> next) {
+    Map<String, CompiledTarget> targets = new LinkedHashMap<>();
+    for (Map.Entry<String, List<String>> entry : next.entrySet()) {
+      String target = entry.getKey();
+      CompiledTarget old = compiled.get(target);
+      if (old != null && old.hidePackages.equals(entry.getValue())) {
+        targets.put(target, old);
+        continue;
+      }
+      CompiledTarget compiledTarget = compileTarget(target, entry.getValue());
+      if (compiledTarget != null)
+        targets.put(target, compiledTarget);
+    }
+    source = next;
+    compiled = targets;
+    fingerprint = RuleCodec.fingerprint(next);
+    return build();
+  }
+
+  /**
+   * 在当前规则上应用增量，只编译增量中的目标
+   *
+   * @return 当前规则不是增量的基准，或应用后与增量记录的结果不一致时返回null，此时不做任何修改
+   */
+  synchronized HideRules applyDelta(RuleCodec.Delta delta) {
+    if (delta.baseFingerprint != fingerprint)
+      return null;
+    Map<String, List<String>> nextSource = new LinkedHashMap<>(source);
+    Map<String, CompiledTarget> targets = new LinkedHashMap<>(compiled);
+    long nextFingerprint = fingerprint;
+    for (Map.Entry<String, List<String>> entry : delta.changes.entrySet()) {
+      String target = entry.getKey();
+      List<String> packages = entry.getValue();
+      List<String> old = packages == null ? nextSource.remove(target) : nextSource.put(target, packages);
+      if (old != null)
+        nextFingerprint -= RuleCodec.fingerprint(target, old);
+      if (packages == null) {
+        targets.remove(target);
+        continue;
+      }
+      nextFingerprint += RuleCodec.fingerprint(target, packages);
+      CompiledTarget compiledTarget = compileTarget(target, packages);
+      if (compiledTarget != null)
+        targets.put(target, compiledTarget);
+      else
+        targets.remove(target);
+    }
+    if (nextFingerprint != delta.fingerprint)
+      return null;
+    source = nextSource;
+    compiled = targets;
+    fingerprint = nextFingerprint;
+    return build();
+  }
+
+  /**
+   * 包安装/卸载后丢弃该包的解析结果，只重新编译引用了它的目标
+   *
+   * @return 没有目标受影响时返回null
+   */
+  synchronized HideRules invalidatePackage(String pkg) {
+    resolved.remove(pkg);
+    Map<String, CompiledTarget> targets = new LinkedHashMap<>(compiled);
+    boolean changed = false;
+    for (Map.Entry<String, List<String>> entry : source.entrySet()) {
+      String target = entry.getKey();
+      if (!targetPackage(target).equals(pkg) && !entry.getValue().contains(pkg))
+        continue;
+      CompiledTarget compiledTarget = compileTarget(target, entry.getValue());
+      if (compiledTarget != null)
+        targets.put(target, compiledTarget);
+      else
+        targets.remove(target);
+      changed = true;
+    }
+    if (!changed)
+      return null;
+    compiled = targets;
+    return build();
+  }
+
+  private HideRules build() {
+    HideRules.Builder builder = new HideRules.Builder(++generation);
+    CompiledTarget global = compiled.get(HideRules.GLOBAL_TARGET);
+    AppIdSet exempt = AppIdSet.EMPTY;
+    if (global != null) {
+      exempt = exemptAppIds(compiled.get(HideRules.EXEMPT_TARGET));
+      builder.global(rule(global, null)).exempt(exempt);
+    }
+    for (Map.Entry<String, CompiledTarget> entry : compiled.entrySet()) {
+      if (HideRules.isSpecialTarget(entry.getKey()))
+        continue;
+      CompiledTarget target = entry.getValue();
+      int appId = AppIdSet.appId(target.key);
+      // 单独的规则会取代全局规则，非豁免的调用方要把全局规则合并进来
+      boolean merge = global != null && appId >= AppIdSet.FIRST_APPLICATION_UID && !exempt.contains(appId);
+      TargetRule rule = rule(target, merge ? global : null);
+      if (target.override)
+        builder.putOverride(target.key, rule);
+      else
+        builder.put(target.key, rule);
+    }
+    return builder.build();
+  }
+
+  private static TargetRule rule(CompiledTarget target, CompiledTarget global) {
+    if (target.rule != null && target.mergedGlobal == global)
+      return target.rule;
+    TargetRule.Builder builder = new TargetRule.Builder().self(target.selfPackage);
+    for (int i = 0; i < target.hideAppIds.length; i++)
+      builder.add(target.hidePackages.get(i), target.hideAppIds[i]);
+    if (global != null) {
+      for (int i = 0; i < global.hideAppIds.length; i++)
+        builder.add(global.hidePackages.get(i), global.hideAppIds[i]);
+    }
+    target.rule = builder.build();
+    target.mergedGlobal = global;
+    return target.rule;
+  }
+
+  private static AppIdSet exemptAppIds(CompiledTarget exempt) {
+    if (exempt == null)
+      return AppIdSet.EMPTY;
+    return AppIdSet.of(exempt.hideAppIds, exempt.hideAppIds.length);
+  }
+
+  private static String targetPackage(String target) {
+    int split = target.indexOf('@');
+    return split > 0 ? target.substring(0, split) : target;
+  }
+
+  private CompiledTarget compileTarget(String target, List<String> hidePackages) {
+    int key = -1;
+    boolean override = false;
+    String pkg = null;
+    if (!HideRules.isSpecialTarget(target)) {
+      pkg = targetPackage(target);
+      int userId = -1;
+      if (pkg.length() != target.length()) {
+        try {
+          userId = Integer.parseInt(target.substring(pkg.length() + 1));
+        } catch (NumberFormatException e) {
+          Albatross.log("Invalid user id: " + target);
+          return null;
+        }
+      }
+      Resolved targetInfo = resolve(pkg);
+      if (targetInfo == NOT_FOUND) {
+        Albatross.log("Package not found: " + pkg);
+        return null;
+      }
+      key = targetInfo.appId;
+      if (userId >= 0) {
+        key += userId * AppIdSet.PER_USER_RANGE;
+        override = true;
+      }
+    }
+    // 豁免名单按调用方appId判断，共享uid也可以
+    boolean exempt = HideRules.EXEMPT_TARGET.equals(target);
+    int[] hideAppIds = new int[hidePackages.size()];
+    for (int i = 0; i < hideAppIds.length; i++) {
+      String hidePkg = hidePackages.get(i);
+      if (PackageSet.isPattern(hidePkg)) {
+        // 无效的通配规则由PackageSet丢弃，豁免名单只按appId判断，不支持通配
+        if (!PackageSet.isValidPattern(hidePkg) || exempt)
+          Albatross.log(target + " ignore pattern:" + hidePkg);
+        hideAppIds[i] = -1;
+        continue;
+      }
+      Resolved info = resolve(hidePkg);
+      // 未安装或使用共享uid的包只能按包名判断
+      hideAppIds[i] = info.sharedUser && !exempt ? -1 : info.appId;
+    }
+    Albatross.log(target + " add rule:" + hidePackages);
+    return new CompiledTarget(hidePackages, key, override, hideAppIds, pkg);
+  }
+
+  private Resolved resolve(String pkg) {
+    Resolved info = resolved.get(pkg);
+    if (info != null)
+      return info;
+    if (packageManager == null)
+      packageManager = Albatross.currentApplication().getPackageManager();
+    try {
+      PackageInfo packageInfo = packageManager.getPackageInfo(pkg, PackageManager.MATCH_UNINSTALLED_PACKAGES);
+      if (packageInfo.applicationInfo == null)
+        info = NOT_FOUND;
+      else
+        info = new Resolved(UserHandle.getAppId(packageInfo.applicationInfo.uid), packageInfo.sharedUserId != null);
+    } catch (PackageManager.NameNotFoundException e) {
+      info = NOT_FOUND;
+    }
+    resolved.put(pkg, info);
+    return info;
+  }
+}
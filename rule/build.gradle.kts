@@ -0,0 +1,21 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.valueOf(libs.versions.javaVersion.get())
+    targetCompatibility = JavaVersion.valueOf(libs.versions.javaVersion.get())
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+// ./gradlew :rule:jmh
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * plugin_params编解码开销，setup中输出两种格式的长度
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+  @Param({"10", "50"})
+  int targetCount;
+
+  @Param({"20", "200"})
+  int hiddenPerTarget;
+
+  private Map<String, List<String>> rules;
+  private String legacy;
+  private String compact;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    List<String> names = SyntheticPackages.names(500, 7);
+    Random random = new Random(7);
+    rules = new LinkedHashMap<>();
+    for (int t = 0; t < targetCount; t++) {
+      List<String> hidden = new ArrayList<>();
+      for (int i = 0; i < hiddenPerTarget; i++)
+        hidden.add(names.get(random.nextInt(names.size())));
+      rules.put(names.get(t), hidden);
+    }
+    legacy = RuleCodec.encodeLegacy(rules);
+    compact = RuleCodec.encode(rules);
+    System.out.println("\npayload chars legacy=" + legacy.length() + " compact=" + compact.length());
+  }
+
+  @Benchmark
+  public Map<String, List<String>> decodeCompact() {
+    return RuleCodec.decode(compact);
+  }
+
+  @Benchmark
+  public Map<String, List<String>> decodeLegacy() {
+    return RuleCodec.decodeLegacy(legacy);
+  }
+
+  /**
+   * 改造前插件中的解析方式，三次正则split
+   */
+  @Benchmark
+  public Map<String, List<String>> decodeRegexSplit() {
+    Map<String, List<String>> result = new LinkedHashMap<>();
+    for (String entry : legacy.split("\\|")) {
+      String[] parts = entry.split(":");
+      if (parts.length != 2)
+        continue;
+      List<String> list = new ArrayList<>();
+      for (String pkg : parts[1].split(",")) {
+        if (!pkg.isEmpty())
+          list.add(pkg);
+      }
+      result.put(parts[0], list);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public String encodeCompact() {
+    return RuleCodec.encode(rules);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次包名判断的开销，查询的包名约99%不在规则中。
+ * setup打印Bloom过滤器在不隐藏的包上的误判率
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContainsBenchmark {
+
+  private static final int QUERIES = 1024;
+
+  @Param({"10", "100", "1000"})
+  int hiddenCount;
+
+  private PackageSet set;
+  private String[] queries;
+  private int next;
+
+  @Setup
+  public void setup() {
+    List<String> hidden = SyntheticPackages.names(hiddenCount, 7);
+    set = PackageSet.of(hidden);
+    List<String> others = SyntheticPackages.names(100000, 11);
+    int falsePositives = 0;
+    for (String pkg : others) {
+      if (set.mightContain(pkg) && !set.lookup(pkg))
+        falsePositives++;
+    }
+    System.out.printf("bloom false positive rate=%.4f (hidden=%d)%n", falsePositives / (double) others.size(), hiddenCount);
+    queries = new String[QUERIES];
+    for (int i = 0; i < QUERIES; i++)
+      queries[i] = i % 100 == 0 ? hidden.get(i % hidden.size()) : others.get(i);
+  }
+
+  private String nextQuery() {
+    return queries[next++ & (QUERIES - 1)];
+  }
+
+  @Benchmark
+  public boolean contains() {
+    return set.contains(nextQuery());
+  }
+
+  @Benchmark
+  public boolean lookupWithoutBloom() {
+    return set.lookup(nextQuery());
+  }
+}
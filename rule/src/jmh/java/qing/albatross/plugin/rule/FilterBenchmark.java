@@ -0,0 +1,123 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟getInstalledApplications返回后的过滤开销。
+ * copyOnly是复制结果列表的基线，其余结果减去它即为插件增加的开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+  @Param({"100", "500", "2000"})
+  int packageCount;
+
+  @Param({"0", "10", "100"})
+  int hiddenCount;
+
+  @Param({"1", "50"})
+  int callerCount;
+
+  private List<SyntheticPackages.AppEntry> installed;
+  private List<SyntheticPackages.AppEntry> components;
+  private HideRules rules;
+  private Map<Integer, List<String>> legacyRules;
+  private int callingUid;
+
+  @Setup
+  public void setup() {
+    List<String> names = SyntheticPackages.names(packageCount, 42);
+    installed = SyntheticPackages.installed(names);
+    components = SyntheticPackages.components(names, 4);
+    int hidden = Math.min(hiddenCount, packageCount);
+    HideRules.Builder builder = new HideRules.Builder(1);
+    legacyRules = new HashMap<>();
+    for (int caller = 0; caller < callerCount; caller++) {
+      int appId = 10000 + packageCount + caller;
+      TargetRule.Builder rule = new TargetRule.Builder();
+      List<String> legacy = new ArrayList<>();
+      for (int i = 0; i < hidden; i++) {
+        int index = (int) ((long) (i + caller) * packageCount / Math.max(hidden, 1)) % packageCount;
+        // 约十分之一的规则模拟未安装/共享uid，只能按包名匹配
+        rule.add(names.get(index), i % 10 == 9 ? -1 : 10000 + index);
+        legacy.add(names.get(index));
+      }
+      builder.put(appId, rule.build());
+      legacyRules.put(appId, legacy);
+      callingUid = appId;
+    }
+    rules = builder.build();
+  }
+
+  @Benchmark
+  public List<SyntheticPackages.AppEntry> copyOnly() {
+    return new ArrayList<>(installed);
+  }
+
+  @Benchmark
+  public List<SyntheticPackages.AppEntry> filter() {
+    List<SyntheticPackages.AppEntry> result = new ArrayList<>(installed);
+    ListFilter.filter(result, rules.get(callingUid), SyntheticPackages.GETTER);
+    return result;
+  }
+
+  @Benchmark
+  public List<SyntheticPackages.AppEntry> filterWithoutRules() {
+    List<SyntheticPackages.AppEntry> result = new ArrayList<>(installed);
+    ListFilter.filter(result, rules.get(1000), SyntheticPackages.GETTER);
+    return result;
+  }
+
+  @Benchmark
+  public List<SyntheticPackages.AppEntry> filterComponents() {
+    List<SyntheticPackages.AppEntry> result = new ArrayList<>(components);
+    ListFilter.filter(result, rules.get(callingUid), SyntheticPackages.GETTER);
+    return result;
+  }
+
+  /**
+   * 改造前的实现：HashMap装箱查找，List.contains线性扫描，倒序remove
+   */
+  @Benchmark
+  public List<SyntheticPackages.AppEntry> legacyReverseRemove() {
+    List<SyntheticPackages.AppEntry> result = new ArrayList<>(installed);
+    List<String> hideApps = legacyRules.get(callingUid);
+    if (hideApps == null)
+      return result;
+    for (int i = result.size() - 1; i >= 0; i--) {
+      if (hideApps.contains(result.get(i).packageName))
+        result.remove(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 生成接近真机分布的包名，供基准测试使用
+ */
+final class SyntheticPackages {
+
+  private static final String[] PREFIXES = {
+      "com.android.", "com.google.android.", "com.miui.", "com.tencent.", "com.alibaba.android.",
+      "com.ss.android.", "org.mozilla.", "com.topjohnwu.", "io.github.", "com.example."
+  };
+
+  static final class AppEntry {
+    final String packageName;
+    final int uid;
+
+    AppEntry(String packageName, int uid) {
+      this.packageName = packageName;
+      this.uid = uid;
+    }
+  }
+
+  static final ListFilter.PackageGetter<AppEntry> GETTER = new ListFilter.PackageGetter<AppEntry>() {
+    @Override
+    public String getPackageName(AppEntry object) {
+      return object.packageName;
+    }
+
+    @Override
+    public int getUid(AppEntry object) {
+      return object.uid;
+    }
+  };
+
+  private SyntheticPackages() {
+  }
+
+  static List<String> names(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+      names.add(PREFIXES[random.nextInt(PREFIXES.length)] + "app" + Integer.toString(random.nextInt(1 << 20), 36) + i);
+    return names;
+  }
+
+  /**
+   * 模拟queryIntentActivities的结果，每个应用连续出现perApp个组件，共用同一个包名字符串
+   */
+  static List<AppEntry> components(List<String> names, int perApp) {
+    List<AppEntry> list = new ArrayList<>(names.size() * perApp);
+    for (int i = 0; i < names.size(); i++) {
+      for (int j = 0; j < perApp; j++)
+        list.add(new AppEntry(names.get(i), 10000 + i));
+    }
+    return list;
+  }
+
+  static List<AppEntry> installed(List<String> names) {
+    List<AppEntry> list = new ArrayList<>(names.size());
+    for (int i = 0; i < names.size(); i++)
+      list.add(new AppEntry(names.get(i), 10000 + i));
+    return list;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+/**
+ * 不可变的appId位图，一次移位和与运算完成判断
+ */
+public final class AppIdSet {
+
+  /**
+   * 与android.os.UserHandle.PER_USER_RANGE一致
+   */
+  public static final int PER_USER_RANGE = 100000;
+
+  /**
+   * 与android.os.Process.FIRST_APPLICATION_UID一致，更小的appId属于系统
+   */
+  public static final int FIRST_APPLICATION_UID = 10000;
+
+  public static final AppIdSet EMPTY = new AppIdSet(new long[0], 0);
+
+  private final long[] bits;
+  private final int size;
+
+  private AppIdSet(long[] bits, int size) {
+    this.bits = bits;
+    this.size = size;
+  }
+
+  public static AppIdSet of(int[] appIds, int count) {
+    if (count == 0)
+      return EMPTY;
+    int max = 0;
+    for (int i = 0; i < count; i++)
+      max = Math.max(max, appIds[i]);
+    long[] bits = new long[(max >>> 6) + 1];
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      int appId = appIds[i];
+      if (appId < 0)
+        continue;
+      long mask = 1L << appId;
+      if ((bits[appId >>> 6] & mask) == 0) {
+        bits[appId >>> 6] |= mask;
+        size++;
+      }
+    }
+    return new AppIdSet(bits, size);
+  }
+
+  public static int appId(int uid) {
+    return uid % PER_USER_RANGE;
+  }
+
+  public boolean contains(int appId) {
+    int word = appId >>> 6;
+    return word < bits.length && (bits[word] & (1L << appId)) != 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 编译后的隐藏规则快照：调用方appId -> 要隐藏的应用规则，对所有用户生效，
+ * 另可按完整uid为单个用户覆盖；没有单独规则的调用方使用全局规则，
+ * 系统appId和豁免名单中的调用方不受全局规则影响。
+ * 调用方自身总是可见：各条规则构建时去掉调用方自己的appId，被全局隐藏的应用另有一份去掉自身的全局规则；
+ * 前缀规则和共享uid的包按包名匹配，由hook中的{@link PackageMatcher#matches(String, int, int)}按appId排除自身。
+ * 构建完成后不可变，通过一次引用赋值整体发布。
+ * 按appId的规则放在以appId为下标的数组中，hook中判断调用方只需一次数组读取，无装箱也无哈希
+ */
+public final class HideRules {
+
+  /**
+   * 规则中表示对所有调用方生效的目标
+   */
+  public static final String GLOBAL_TARGET = "*";
+
+  /**
+   * 规则中列出不受全局规则影响的调用方的目标
+   */
+  public static final String EXEMPT_TARGET = "!";
+
+  public static final HideRules EMPTY = new Builder(0).build();
+
+  public final long generation;
+  private final TargetRule[] byAppId;
+  private final int appIdRuleCount;
+  private final IntTable byUid;
+  private final TargetRule global;
+  private final AppIdSet exempt;
+
+  private HideRules(Builder builder) {
+    generation = builder.generation;
+    global = builder.global;
+    exempt = builder.exempt;
+    int max = -1;
+    for (int appId : builder.appIds)
+      max = Math.max(max, appId);
+    if (global != null) {
+      for (int appId : global.entryAppIds)
+        max = Math.max(max, appId);
+    }
+    byAppId = new TargetRule[max + 1];
+    int count = 0;
+    for (int i = 0; i < builder.appIds.size(); i++) {
+      int appId = builder.appIds.get(i);
+      if (byAppId[appId] == null)
+        count++;
+      byAppId[appId] = builder.appIdRules.get(i).without(appId);
+    }
+    appIdRuleCount = count;
+    if (global != null) {
+      for (int appId : global.entryAppIds) {
+        if (appId >= 0 && byAppId[appId] == null && !isExempt(appId))
+          byAppId[appId] = global.without(appId);
+      }
+    }
+    List<TargetRule> uidRules = new ArrayList<>(builder.uidRules.size());
+    for (int i = 0; i < builder.uids.size(); i++)
+      uidRules.add(builder.uidRules.get(i).without(AppIdSet.appId(builder.uids.get(i))));
+    byUid = new IntTable(builder.uids, uidRules);
+  }
+
+  public static boolean isSpecialTarget(String target) {
+    return GLOBAL_TARGET.equals(target) || EXEMPT_TARGET.equals(target);
+  }
+
+  /**
+   * @return 该调用方的隐藏规则，没有规则或规则为空时返回null
+   */
+  public TargetRule get(int callingUid) {
+    if (byUid.size != 0) {
+      TargetRule rule = byUid.get(callingUid);
+      if (rule != null)
+        return rule.isEmpty() ? null : rule;
+    }
+    int appId = AppIdSet.appId(callingUid);
+    TargetRule[] byAppId = this.byAppId;
+    if (appId >= 0 && appId < byAppId.length) {
+      TargetRule rule = byAppId[appId];
+      if (rule != null)
+        return rule.isEmpty() ? null : rule;
+    }
+    if (global == null || isExempt(appId))
+      return null;
+    return global;
+  }
+
+  public boolean isExempt(int appId) {
+    return appId < AppIdSet.FIRST_APPLICATION_UID || exempt.contains(appId);
+  }
+
+  public int size() {
+    return appIdRuleCount + byUid.size + (global != null ? 1 : 0);
+  }
+
+  private static final class IntTable {
+    final int[] keys;
+    final TargetRule[] rules;
+    final int mask;
+    final int size;
+
+    IntTable(List<Integer> keyList, List<TargetRule> ruleList) {
+      int count = keyList.size();
+      int capacity = 2;
+      while (capacity < count * 2)
+        capacity <<= 1;
+      keys = new int[capacity];
+      rules = new TargetRule[capacity];
+      mask = capacity - 1;
+      int n = 0;
+      for (int k = 0; k < count; k++) {
+        int key = keyList.get(k);
+        int i = slot(key);
+        while (rules[i] != null && keys[i] != key)
+          i = (i + 1) & mask;
+        if (rules[i] == null)
+          n++;
+        keys[i] = key;
+        rules[i] = ruleList.get(k);
+      }
+      size = n;
+    }
+
+    private int slot(int key) {
+      int h = key * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    TargetRule get(int key) {
+      int i = slot(key);
+      TargetRule rule;
+      while ((rule = rules[i]) != null) {
+        if (keys[i] == key)
+          return rule;
+        i = (i + 1) & mask;
+      }
+      return null;
+    }
+  }
+
+  public static final class Builder {
+    private final long generation;
+    private final List<Integer> appIds = new ArrayList<>();
+    private final List<TargetRule> appIdRules = new ArrayList<>();
+    private final List<Integer> uids = new ArrayList<>();
+    private final List<TargetRule> uidRules = new ArrayList<>();
+    private TargetRule global;
+    private AppIdSet exempt = AppIdSet.EMPTY;
+
+    public Builder(long generation) {
+      this.generation = generation;
+    }
+
+    /**
+     * 对调用方所有用户下的实例生效
+     */
+    public Builder put(int appId, TargetRule rule) {
+      if (appId < 0 || appId >= AppIdSet.PER_USER_RANGE)
+        throw new IllegalArgumentException("bad appId " + appId);
+      if (!rule.isEmpty()) {
+        appIds.add(appId);
+        appIdRules.add(rule);
+      }
+      return this;
+    }
+
+    /**
+     * 只对单个用户生效并覆盖{@link #put}的规则，空规则表示该用户下不隐藏
+     */
+    public Builder putOverride(int uid, TargetRule rule) {
+      uids.add(uid);
+      uidRules.add(rule);
+      return this;
+    }
+
+    /**
+     * 没有单独规则的调用方使用的规则，单独规则需要自行包含全局规则
+     */
+    public Builder global(TargetRule rule) {
+      global = rule.isEmpty() ? null : rule;
+      return this;
+    }
+
+    /**
+     * 不使用全局规则的调用方，系统appId总是豁免
+     */
+    public Builder exempt(AppIdSet appIds) {
+      exempt = appIds;
+      return this;
+    }
+
+    public HideRules build() {
+      return new HideRules(this);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个hook的调用次数和附加逻辑耗时统计。
+ * 耗时按2的幂分段，每段再分4格，记录只做一次数组自增，不分配对象；
+ * 直方图和uid计数都按线程分条，减少多个binder线程之间的竞争。
+ * 另按调用方uid计数，表满后计入其它。
+ * 统计默认关闭，由system_server插件的命令广播{@link #ENABLE_COMMAND}打开，关闭时hook只多一次volatile读取
+ */
+public final class HookStats {
+
+  private static final int SUB_BUCKETS = 4;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+  private static final int STRIPES = 4;
+  private static final int UID_SLOTS = 256;
+
+  public static final String ENABLE_COMMAND = "stats on";
+  public static final String DISABLE_COMMAND = "stats off";
+
+  private static final List<HookStats> ALL = new CopyOnWriteArrayList<>();
+  private static volatile boolean enabled;
+
+  private final String name;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLongArray histogram = new AtomicLongArray(STRIPES * BUCKETS);
+  /** 存uid + 1，0表示空槽 */
+  private final AtomicIntegerArray uids = new AtomicIntegerArray(UID_SLOTS);
+  /** 下标为stripe * UID_SLOTS + 槽位 */
+  private final AtomicLongArray uidCalls = new AtomicLongArray(STRIPES * UID_SLOTS);
+  private final LongAdder otherUidCalls = new LongAdder();
+
+  private HookStats(String name) {
+    this.name = name;
+  }
+
+  public static HookStats create(String name) {
+    HookStats stats = new HookStats(name);
+    ALL.add(stats);
+    return stats;
+  }
+
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * 统计关闭时返回0，{@link #end}据此跳过记录
+   */
+  public static long begin() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  public void end(int callingUid, long begin) {
+    if (begin != 0)
+      record(callingUid, System.nanoTime() - begin);
+  }
+
+  static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS)
+      return (int) Math.max(nanos, 0);
+    int exp = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int) (nanos >>> (exp - 2)) & (SUB_BUCKETS - 1);
+    return exp * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * 该格的上界（不含），单位纳秒
+   */
+  static long bucketLimit(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket + 1;
+    int exp = bucket / SUB_BUCKETS;
+    int sub = bucket % SUB_BUCKETS;
+    long base = SUB_BUCKETS + sub + 1;
+    int shift = exp - 2;
+    // 最高的几格超出long范围
+    if (shift >= Long.numberOfLeadingZeros(base))
+      return Long.MAX_VALUE;
+    return base << shift;
+  }
+
+  public void record(int callingUid, long nanos) {
+    calls.increment();
+    totalNanos.add(nanos);
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    histogram.getAndIncrement(stripe * BUCKETS + bucket(nanos));
+    countUid(callingUid, stripe);
+  }
+
+  private void countUid(int uid, int stripe) {
+    int key = uid + 1;
+    int h = uid * 0x9E3779B9;
+    int i = (h ^ (h >>> 16)) & (UID_SLOTS - 1);
+    for (int probe = 0; probe < UID_SLOTS; probe++) {
+      int current = uids.get(i);
+      if (current == key || (current == 0 && (uids.compareAndSet(i, 0, key) || uids.get(i) == key))) {
+        uidCalls.getAndIncrement(stripe * UID_SLOTS + i);
+        return;
+      }
+      i = (i + 1) & (UID_SLOTS - 1);
+    }
+    otherUidCalls.increment();
+  }
+
+  private void dump(StringBuilder builder, int topUids) {
+    long count = calls.sum();
+    builder.append(name).append(" calls=").append(count);
+    if (count == 0) {
+      builder.append('\n');
+      return;
+    }
+    long[] merged = new long[BUCKETS];
+    for (int s = 0; s < STRIPES; s++) {
+      for (int b = 0; b < BUCKETS; b++)
+        merged[b] += histogram.get(s * BUCKETS + b);
+    }
+    long total = 0;
+    for (long c : merged)
+      total += c;
+    builder.append(" avg=").append(totalNanos.sum() / count).append("ns");
+    double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+    String[] labels = {"p50", "p90", "p99", "p999"};
+    int q = 0;
+    long seen = 0;
+    int max = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      if (merged[b] == 0)
+        continue;
+      seen += merged[b];
+      max = b;
+      while (q < quantiles.length && seen >= (long) Math.ceil(total * quantiles[q])) {
+        builder.append(' ').append(labels[q]).append("<").append(bucketLimit(b)).append("ns");
+        q++;
+      }
+    }
+    builder.append(" max<").append(bucketLimit(max)).append("ns\n");
+    // 调用次数最多的uid
+    long[] counts = new long[UID_SLOTS];
+    for (int i = 0; i < UID_SLOTS; i++) {
+      if (uids.get(i) == 0)
+        continue;
+      for (int s = 0; s < STRIPES; s++)
+        counts[i] += uidCalls.get(s * UID_SLOTS + i);
+    }
+    for (int n = 0; n < topUids; n++) {
+      int best = -1;
+      for (int i = 0; i < UID_SLOTS; i++) {
+        if (counts[i] > 0 && (best < 0 || counts[i] > counts[best]))
+          best = i;
+      }
+      if (best < 0)
+        break;
+      builder.append("  uid ").append(uids.get(best) - 1).append(" calls=").append(counts[best]).append('\n');
+      counts[best] = 0;
+    }
+    long other = otherUidCalls.sum();
+    if (other > 0)
+      builder.append("  other uid calls=").append(other).append('\n');
+  }
+
+  /**
+   * 所有hook的统计快照，每个hook附带调用最多的topUids个uid
+   */
+  public static String dumpAll(int topUids) {
+    StringBuilder builder = new StringBuilder(enabled ? "hook stats\n" : "hook stats (disabled)\n");
+    for (HookStats stats : ALL)
+      stats.dump(builder, topUids);
+    return builder.toString();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 列表过滤工具，供inapp和insystem的所有hook共用。
+ * 对ArrayList一次读写双游标压缩，最后统一截断，避免逐个remove带来的O(n^2)搬移
+ */
+public final class ListFilter {
+
+  public interface PackageGetter<T> {
+    String getPackageName(T object);
+
+    /**
+     * @return 元素所属的uid，未知时返回-1，此时只按包名判断
+     */
+    default int getUid(T object) {
+      return -1;
+    }
+  }
+
+  private static boolean firstFilterTraced;
+
+  private ListFilter() {
+  }
+
+  /**
+   * 原地移除列表中被hidden匹配的元素，null元素保留。
+   * PMS返回的同一个应用的多个组件共用同一个包名字符串对象，
+   * 一次过滤内按引用记住上一个包名的结果，连续同包的元素只判断一次
+   *
+   * @return 被移除的元素个数
+   */
+  public static <T> int filter(List<T> list, PackageMatcher hidden, PackageGetter<T> getter) {
+    return filter(list, hidden, getter, -1);
+  }
+
+  /**
+   * @param callingUid 调用方uid，与调用方appId相同的元素总是保留，未知时传-1
+   */
+  public static <T> int filter(List<T> list, PackageMatcher hidden, PackageGetter<T> getter, int callingUid) {
+    if (list == null || hidden == null || hidden.isEmpty())
+      return 0;
+    int size = list.size();
+    if (size == 0)
+      return 0;
+    if (!firstFilterTraced) {
+      // 第一次过滤包含类加载和解释执行的开销，单独记录
+      firstFilterTraced = true;
+      long begin = SpanRing.begin();
+      int removed = filterList(list, size, hidden, getter, callingUid);
+      SpanRing.STARTUP.end("first filter", begin);
+      return removed;
+    }
+    return filterList(list, size, hidden, getter, callingUid);
+  }
+
+  private static <T> int filterList(List<T> list, int size, PackageMatcher hidden, PackageGetter<T> getter, int callingUid) {
+    String lastPackage = null;
+    boolean lastHidden = false;
+    if (!(list instanceof RandomAccess)) {
+      int removed = 0;
+      for (Iterator<T> it = list.iterator(); it.hasNext(); ) {
+        T o = it.next();
+        if (o == null)
+          continue;
+        String pkg = getter.getPackageName(o);
+        if (pkg == null || pkg != lastPackage) {
+          lastHidden = hidden.matches(pkg, getter.getUid(o), callingUid);
+          lastPackage = pkg;
+        }
+        if (lastHidden) {
+          it.remove();
+          removed++;
+        }
+      }
+      return removed;
+    }
+    int write = 0;
+    for (int read = 0; read < size; read++) {
+      T o = list.get(read);
+      if (o != null) {
+        String pkg = getter.getPackageName(o);
+        if (pkg == null || pkg != lastPackage) {
+          lastHidden = hidden.matches(pkg, getter.getUid(o), callingUid);
+          lastPackage = pkg;
+        }
+        if (lastHidden)
+          continue;
+      }
+      if (write != read)
+        list.set(write, o);
+      write++;
+    }
+    if (write < size)
+      list.subList(write, size).clear();
+    return size - write;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+/**
+ * 判断一个包是否需要隐藏，实现必须是只读的，可被多线程并发调用
+ */
+public interface PackageMatcher {
+
+  boolean isEmpty();
+
+  /**
+   * @param packageName 包名，可能为null
+   * @param uid         包的uid，未知时传-1
+   */
+  boolean matches(String packageName, int uid);
+
+  /**
+   * hook中的判断入口，调用方自身总是可见：目标与调用方appId相同时不隐藏，
+   * 前缀规则和共享uid的包按包名匹配，单靠构建时去掉调用方appId排除不了自身
+   *
+   * @param callingUid 调用方uid，未知时传-1
+   */
+  default boolean matches(String packageName, int uid, int callingUid) {
+    if (isSelf(uid, callingUid))
+      return false;
+    return matches(packageName, uid);
+  }
+
+  static boolean isSelf(int uid, int callingUid) {
+    return uid >= 0 && callingUid >= 0 && AppIdSet.appId(uid) == AppIdSet.appId(callingUid);
+  }
+}
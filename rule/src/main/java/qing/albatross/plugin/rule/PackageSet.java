@@ -0,0 +1,222 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 不可变的包名集合，开放寻址哈希表，构建后只读，可被多个线程无锁并发读取。
+ * 以'*'结尾的条目是前缀通配，如"com.topjohnwu.*"，编译进{@link PrefixTrie}；
+ * 其它位置的'*'按普通字符处理，前缀为空或不以字母开头的通配规则直接丢弃。
+ * 精确包名另外建一个分块Bloom过滤器，每个包名只落在一个long内，
+ * 绝大多数不隐藏的包读一个long即可排除，不用探测哈希表
+ */
+public final class PackageSet implements PackageMatcher {
+
+  public static final PackageSet EMPTY = new PackageSet(new String[0], null);
+
+  private final String[] table;
+  private final int[] hashes;
+  private final int mask;
+  private final int size;
+  private final long[] bloom;
+  private final int bloomMask;
+  private final PrefixTrie prefixes;
+  private final String[] patterns;
+  private final String except;
+
+  private PackageSet(String[] packages, String except) {
+    this.except = except;
+    List<String> patternList = new ArrayList<>();
+    List<String> prefixList = new ArrayList<>();
+    int capacity = 2;
+    while (capacity < packages.length * 2)
+      capacity <<= 1;
+    table = new String[capacity];
+    hashes = new int[capacity];
+    mask = capacity - 1;
+    int count = 0;
+    for (String pkg : packages) {
+      if (pkg == null || pkg.isEmpty())
+        continue;
+      if (isPattern(pkg)) {
+        if (isValidPattern(pkg) && !patternList.contains(pkg)) {
+          patternList.add(pkg);
+          prefixList.add(pkg.substring(0, pkg.length() - 1));
+        }
+        continue;
+      }
+      int h = spread(pkg.hashCode());
+      int i = h & mask;
+      boolean exists = false;
+      while (table[i] != null) {
+        if (hashes[i] == h && table[i].equals(pkg)) {
+          exists = true;
+          break;
+        }
+        i = (i + 1) & mask;
+      }
+      if (!exists) {
+        table[i] = pkg;
+        hashes[i] = h;
+        count++;
+      }
+    }
+    int blocks = 1;
+    while (blocks * 64 < count * BLOOM_BITS_PER_ENTRY)
+      blocks <<= 1;
+    bloom = new long[blocks];
+    bloomMask = blocks - 1;
+    for (int i = 0; i < capacity; i++) {
+      if (table[i] != null) {
+        long h = bloomHash(hashes[i]);
+        bloom[(int) (h >>> 32) & bloomMask] |= bloomBits(h);
+      }
+    }
+    size = count + patternList.size();
+    patterns = patternList.toArray(new String[0]);
+    prefixes = prefixList.isEmpty() ? null : PrefixTrie.of(prefixList);
+  }
+
+  public static PackageSet of(Collection<String> packages) {
+    return of(packages, null);
+  }
+
+  /**
+   * @param except 不会被通配规则匹配的包，通常是调用方自身，可为null
+   */
+  public static PackageSet of(Collection<String> packages, String except) {
+    if (packages == null || packages.isEmpty())
+      return EMPTY;
+    return new PackageSet(packages.toArray(new String[0]), except);
+  }
+
+  public static boolean isPattern(String pkg) {
+    return pkg.endsWith("*");
+  }
+
+  /**
+   * 包名以字母开头，"*"、".*"这类前缀为空或只有分隔符的规则会隐藏所有应用，不接受
+   */
+  public static boolean isValidPattern(String pkg) {
+    if (pkg.length() < 2)
+      return false;
+    char c = pkg.charAt(0);
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+  }
+
+  /**
+   * 配置界面手动输入的规则：包名，或以'*'结尾的包名前缀。
+   * 只允许包名中的字符，'*'只能在末尾，单独的"*"会隐藏所有应用，不接受
+   */
+  public static boolean isValidEntry(String entry) {
+    if (isPattern(entry) && !isValidPattern(entry))
+      return false;
+    int end = isPattern(entry) ? entry.length() - 1 : entry.length();
+    if (end == 0)
+      return false;
+    for (int i = 0; i < end; i++) {
+      char c = entry.charAt(i);
+      if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '.'))
+        return false;
+    }
+    return true;
+  }
+
+  private static final int BLOOM_BITS_PER_ENTRY = 16;
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static long bloomHash(int h) {
+    long x = h * 0x9E3779B97F4A7C15L;
+    return x ^ (x >>> 29);
+  }
+
+  /**
+   * 在块内置3位，位置取自哈希的低18位，块下标取自高32位
+   */
+  private static long bloomBits(long h) {
+    return (1L << h) | (1L << (h >>> 6)) | (1L << (h >>> 12));
+  }
+
+  /**
+   * @return false时一定不在精确包名中，true时可能在
+   */
+  boolean mightContain(String pkg) {
+    long h = bloomHash(spread(pkg.hashCode()));
+    long bits = bloomBits(h);
+    return (bloom[(int) (h >>> 32) & bloomMask] & bits) == bits;
+  }
+
+  public boolean contains(String pkg) {
+    if (pkg == null || size == 0)
+      return false;
+    return (mightContain(pkg) && lookup(pkg))
+        || (prefixes != null && prefixes.matches(pkg) && !pkg.equals(except));
+  }
+
+  /**
+   * 直接探测哈希表，不经过Bloom过滤器
+   */
+  boolean lookup(String pkg) {
+    int h = spread(pkg.hashCode());
+    String[] table = this.table;
+    int i = h & mask;
+    String s;
+    while ((s = table[i]) != null) {
+      if (s == pkg || (hashes[i] == h && s.equals(pkg)))
+        return true;
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean matches(String packageName, int uid) {
+    return contains(packageName);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (String s : table) {
+      if (s == null)
+        continue;
+      if (builder.length() > 1)
+        builder.append(", ");
+      builder.append(s);
+    }
+    for (String s : patterns) {
+      if (builder.length() > 1)
+        builder.append(", ");
+      builder.append(s);
+    }
+    return builder.append(']').toString();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 包名前缀的字符trie，构建后只读。
+ * 节点的出边按字符排序存放在连续数组中，匹配时逐字符二分查找出边，
+ * 耗时只和包名长度有关，与前缀个数无关，且不分配对象
+ */
+final class PrefixTrie {
+
+  /** 节点i的出边为[edgeStart[i], edgeStart[i + 1]) */
+  private final int[] edgeStart;
+  private final char[] edgeChar;
+  private final int[] edgeTarget;
+  /** 到达该节点即说明某个前缀已匹配 */
+  private final boolean[] terminal;
+
+  private PrefixTrie(int[] edgeStart, char[] edgeChar, int[] edgeTarget, boolean[] terminal) {
+    this.edgeStart = edgeStart;
+    this.edgeChar = edgeChar;
+    this.edgeTarget = edgeTarget;
+    this.terminal = terminal;
+  }
+
+  /**
+   * 被更短前缀覆盖的前缀不会建立节点
+   */
+  static PrefixTrie of(List<String> prefixes) {
+    String[] sorted = prefixes.toArray(new String[0]);
+    Arrays.sort(sorted);
+    // 排序后被覆盖的前缀紧跟在覆盖它的前缀之后
+    List<String> kept = new ArrayList<>(sorted.length);
+    String last = null;
+    for (String prefix : sorted) {
+      if (last != null && prefix.startsWith(last))
+        continue;
+      kept.add(prefix);
+      last = prefix;
+    }
+    // 先用可变节点建树，再按广度优先展开成数组，保证同一节点的出边连续且有序
+    Node root = new Node();
+    int nodeCount = 1;
+    for (String prefix : kept) {
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        Node child = node.child(prefix.charAt(i));
+        if (child == null) {
+          child = node.add(prefix.charAt(i));
+          nodeCount++;
+        }
+        node = child;
+      }
+      node.terminal = true;
+    }
+    int[] edgeStart = new int[nodeCount + 1];
+    char[] edgeChar = new char[nodeCount - 1];
+    int[] edgeTarget = new int[nodeCount - 1];
+    boolean[] terminal = new boolean[nodeCount];
+    Node[] queue = new Node[nodeCount];
+    queue[0] = root;
+    int tail = 1;
+    int edge = 0;
+    for (int head = 0; head < nodeCount; head++) {
+      Node node = queue[head];
+      terminal[head] = node.terminal;
+      edgeStart[head] = edge;
+      for (int i = 0; i < node.size; i++) {
+        edgeChar[edge] = node.chars[i];
+        edgeTarget[edge] = tail;
+        queue[tail++] = node.children[i];
+        edge++;
+      }
+    }
+    edgeStart[nodeCount] = edge;
+    return new PrefixTrie(edgeStart, edgeChar, edgeTarget, terminal);
+  }
+
+  boolean matches(String pkg) {
+    int node = 0;
+    if (terminal[0])
+      return true;
+    char[] edgeChar = this.edgeChar;
+    for (int i = 0, length = pkg.length(); i < length; i++) {
+      int edge = Arrays.binarySearch(edgeChar, edgeStart[node], edgeStart[node + 1], pkg.charAt(i));
+      if (edge < 0)
+        return false;
+      node = edgeTarget[edge];
+      if (terminal[node])
+        return true;
+    }
+    return false;
+  }
+
+  private static final class Node {
+    char[] chars = new char[2];
+    Node[] children = new Node[2];
+    int size;
+    boolean terminal;
+
+    Node child(char c) {
+      int i = Arrays.binarySearch(chars, 0, size, c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    Node add(char c) {
+      int i = -Arrays.binarySearch(chars, 0, size, c) - 1;
+      if (size == chars.length) {
+        chars = Arrays.copyOf(chars, size * 2);
+        children = Arrays.copyOf(children, size * 2);
+      }
+      System.arraycopy(chars, i, chars, i + 1, size - i);
+      System.arraycopy(children, i, children, i + 1, size - i);
+      Node child = new Node();
+      chars[i] = c;
+      children[i] = child;
+      size++;
+      return child;
+    }
+  }
+}
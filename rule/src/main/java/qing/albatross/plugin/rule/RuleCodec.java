@@ -0,0 +1,470 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * plugin_params中隐藏规则的编解码，配置界面和插件共用。
+ * <p>
+ * 紧凑格式为"$1"加上url安全的无填充Base64，内容依次为：
+ * 排序去重后的包名字典（varint个数，每项varint公共前缀长度、varint后缀长度、后缀UTF-8），
+ * varint目标个数，每个目标varint字典下标、varint隐藏个数、升序下标的varint差值。
+ * 不带前缀的字符串按旧的"pkg:a,b|pkg2:c"文本格式解析。
+ * <p>
+ * 增量格式为"$d"、Base64的增量头、'.'和修改后的完整紧凑格式。增量头依次为：
+ * 8字节基准规则指纹、8字节修改后指纹、varint修改个数，
+ * 每项为目标名、varint(隐藏个数 + 1，0表示删除目标)和各个包名，字符串均为varint长度加UTF-8。
+ * 插件在当前规则指纹等于基准时只应用增量，否则按后面的完整规则重新解析；
+ * 宿主持久化的即使是增量，下次启动{@link #decode}也只读完整部分，规则不会丢失。
+ */
+public final class RuleCodec {
+
+  public static final String PREFIX_V1 = "$1";
+  public static final String PREFIX_DELTA = "$d";
+  private static final char DELTA_SEPARATOR = '.';
+
+  private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+  private static final byte[] REVERSE = new byte[128];
+
+  static {
+    Arrays.fill(REVERSE, (byte) -1);
+    for (int i = 0; i < ALPHABET.length; i++)
+      REVERSE[ALPHABET[i]] = (byte) i;
+  }
+
+  private RuleCodec() {
+  }
+
+  public static boolean isCompact(String rules) {
+    return rules != null && rules.startsWith(PREFIX_V1);
+  }
+
+  public static boolean isDelta(String rules) {
+    return rules != null && rules.startsWith(PREFIX_DELTA);
+  }
+
+  /**
+   * 从base到next的增量，只包含隐藏列表有变化、新增和删除的目标
+   */
+  public static final class Delta {
+    public final long baseFingerprint;
+    public final long fingerprint;
+    /**
+     * 目标 -> 排序去重后的新隐藏列表，null表示删除该目标
+     */
+    public final Map<String, List<String>> changes;
+    /**
+     * 修改后的完整规则，紧凑格式
+     */
+    public final String full;
+
+    Delta(long baseFingerprint, long fingerprint, Map<String, List<String>> changes, String full) {
+      this.baseFingerprint = baseFingerprint;
+      this.fingerprint = fingerprint;
+      this.changes = changes;
+      this.full = full;
+    }
+  }
+
+  /**
+   * 单个目标的指纹，与隐藏列表的顺序和重复无关
+   */
+  public static long fingerprint(String target, List<String> packages) {
+    long h = mix(target.hashCode());
+    for (String pkg : new HashSet<>(packages))
+      h += mix(~pkg.hashCode());
+    return mix(h);
+  }
+
+  /**
+   * 整套规则的指纹，为各目标指纹之和，增删改单个目标时可以增量更新
+   */
+  public static long fingerprint(Map<String, List<String>> rules) {
+    long h = 0;
+    for (Map.Entry<String, List<String>> entry : rules.entrySet())
+      h += fingerprint(entry.getKey(), entry.getValue());
+    return h;
+  }
+
+  private static long mix(long h) {
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  private static List<String> normalize(List<String> packages) {
+    return new ArrayList<>(new TreeSet<>(packages));
+  }
+
+  /**
+   * @param base 插件当前的规则，即上次发送的完整规则
+   */
+  public static String encodeDelta(Map<String, List<String>> base, Map<String, List<String>> next) {
+    Map<String, List<String>> changes = new LinkedHashMap<>();
+    for (Map.Entry<String, List<String>> entry : next.entrySet()) {
+      List<String> packages = normalize(entry.getValue());
+      List<String> old = base.get(entry.getKey());
+      if (old == null || !normalize(old).equals(packages))
+        changes.put(entry.getKey(), packages);
+    }
+    for (String target : base.keySet()) {
+      if (!next.containsKey(target))
+        changes.put(target, null);
+    }
+    ByteWriter out = new ByteWriter();
+    out.fixed64(fingerprint(base));
+    out.fixed64(fingerprint(next));
+    out.varint(changes.size());
+    for (Map.Entry<String, List<String>> entry : changes.entrySet()) {
+      out.string(entry.getKey());
+      List<String> packages = entry.getValue();
+      if (packages == null) {
+        out.varint(0);
+        continue;
+      }
+      out.varint(packages.size() + 1);
+      for (String pkg : packages)
+        out.string(pkg);
+    }
+    return PREFIX_DELTA + base64(out.buffer, out.size) + DELTA_SEPARATOR + encode(next);
+  }
+
+  /**
+   * 只解析增量头，完整部分原样保留
+   *
+   * @throws IllegalArgumentException 不是增量格式或数据损坏
+   */
+  public static Delta decodeDelta(String delta) {
+    int split = delta.indexOf(DELTA_SEPARATOR);
+    if (!isDelta(delta) || split < 0 || !delta.startsWith(PREFIX_V1, split + 1))
+      throw new IllegalArgumentException("bad delta");
+    ByteReader in = new ByteReader(unbase64(delta.substring(0, split), PREFIX_DELTA.length()));
+    long baseFingerprint = in.fixed64();
+    long fingerprint = in.fixed64();
+    int count = in.count();
+    Map<String, List<String>> changes = new LinkedHashMap<>(count * 2);
+    for (int c = 0; c < count; c++) {
+      String target = in.string();
+      int size = in.count();
+      List<String> packages = null;
+      if (size > 0) {
+        packages = new ArrayList<>(size - 1);
+        for (int i = 1; i < size; i++)
+          packages.add(in.string());
+      }
+      changes.put(target, packages);
+    }
+    return new Delta(baseFingerprint, fingerprint, changes, delta.substring(split + 1));
+  }
+
+  public static String encode(Map<String, List<String>> rules) {
+    TreeSet<String> sorted = new TreeSet<>();
+    for (Map.Entry<String, List<String>> entry : rules.entrySet()) {
+      sorted.add(entry.getKey());
+      sorted.addAll(entry.getValue());
+    }
+    String[] dictionary = sorted.toArray(new String[0]);
+    Map<String, Integer> index = new HashMap<>(dictionary.length * 2);
+    for (int i = 0; i < dictionary.length; i++)
+      index.put(dictionary[i], i);
+
+    ByteWriter out = new ByteWriter();
+    out.varint(dictionary.length);
+    byte[] previous = new byte[0];
+    for (String s : dictionary) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      int common = 0;
+      int max = Math.min(previous.length, bytes.length);
+      while (common < max && previous[common] == bytes[common])
+        common++;
+      out.varint(common);
+      out.varint(bytes.length - common);
+      out.bytes(bytes, common, bytes.length - common);
+      previous = bytes;
+    }
+    out.varint(rules.size());
+    for (Map.Entry<String, List<String>> entry : rules.entrySet()) {
+      out.varint(index.get(entry.getKey()));
+      List<String> packages = entry.getValue();
+      int[] ids = new int[packages.size()];
+      for (int i = 0; i < ids.length; i++)
+        ids[i] = index.get(packages.get(i));
+      Arrays.sort(ids);
+      int count = 0;
+      for (int i = 0; i < ids.length; i++) {
+        if (i == 0 || ids[i] != ids[i - 1])
+          ids[count++] = ids[i];
+      }
+      out.varint(count);
+      int last = 0;
+      for (int i = 0; i < count; i++) {
+        out.varint(ids[i] - last);
+        last = ids[i];
+      }
+    }
+    return PREFIX_V1 + base64(out.buffer, out.size);
+  }
+
+  /**
+   * @throws IllegalArgumentException 紧凑格式数据损坏
+   */
+  public static Map<String, List<String>> decode(String rules) {
+    if (rules == null || rules.isEmpty())
+      return new LinkedHashMap<>();
+    if (isDelta(rules))
+      return decode(decodeDelta(rules).full);
+    if (!isCompact(rules))
+      return decodeLegacy(rules);
+    ByteReader in = new ByteReader(unbase64(rules, PREFIX_V1.length()));
+    int dictionarySize = in.count();
+    String[] dictionary = new String[dictionarySize];
+    byte[] previous = new byte[0];
+    for (int i = 0; i < dictionarySize; i++) {
+      int common = in.varint();
+      int suffix = in.count();
+      if (common > previous.length)
+        throw new IllegalArgumentException("bad prefix length " + common);
+      byte[] bytes = new byte[common + suffix];
+      System.arraycopy(previous, 0, bytes, 0, common);
+      in.bytes(bytes, common, suffix);
+      dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+      previous = bytes;
+    }
+    int targets = in.count();
+    Map<String, List<String>> result = new LinkedHashMap<>(targets * 2);
+    for (int t = 0; t < targets; t++) {
+      String target = dictionary[in.index(dictionarySize)];
+      int count = in.count();
+      List<String> packages = new ArrayList<>(count);
+      int last = 0;
+      for (int i = 0; i < count; i++) {
+        last += in.varint();
+        if (last >= dictionarySize)
+          throw new IllegalArgumentException("bad index " + last);
+        packages.add(dictionary[last]);
+      }
+      result.put(target, packages);
+    }
+    return result;
+  }
+
+  /**
+   * 旧文本格式"pkg:a,b|pkg2:c"，无效的条目直接跳过
+   */
+  public static Map<String, List<String>> decodeLegacy(String rules) {
+    Map<String, List<String>> result = new LinkedHashMap<>();
+    int length = rules.length();
+    int start = 0;
+    while (start < length) {
+      int end = rules.indexOf('|', start);
+      if (end < 0)
+        end = length;
+      int colon = indexOf(rules, ':', start, end);
+      if (colon > start && indexOf(rules, ':', colon + 1, end) < 0) {
+        List<String> packages = new ArrayList<>();
+        int p = colon + 1;
+        while (p < end) {
+          int comma = indexOf(rules, ',', p, end);
+          if (comma < 0)
+            comma = end;
+          if (comma > p)
+            packages.add(rules.substring(p, comma));
+          p = comma + 1;
+        }
+        result.put(rules.substring(start, colon), packages);
+      }
+      start = end + 1;
+    }
+    return result;
+  }
+
+  private static int indexOf(String s, char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (s.charAt(i) == c)
+        return i;
+    }
+    return -1;
+  }
+
+  public static String encodeLegacy(Map<String, List<String>> rules) {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, List<String>> entry : rules.entrySet()) {
+      if (builder.length() > 0)
+        builder.append('|');
+      builder.append(entry.getKey()).append(':');
+      List<String> packages = entry.getValue();
+      for (int i = 0; i < packages.size(); i++) {
+        if (i > 0)
+          builder.append(',');
+        builder.append(packages.get(i));
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String base64(byte[] data, int length) {
+    StringBuilder builder = new StringBuilder((length * 4 + 2) / 3);
+    int i = 0;
+    for (; i + 2 < length; i += 3) {
+      int v = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+      builder.append(ALPHABET[v >>> 18]).append(ALPHABET[(v >>> 12) & 63])
+          .append(ALPHABET[(v >>> 6) & 63]).append(ALPHABET[v & 63]);
+    }
+    int remain = length - i;
+    if (remain == 1) {
+      int v = (data[i] & 0xff) << 16;
+      builder.append(ALPHABET[v >>> 18]).append(ALPHABET[(v >>> 12) & 63]);
+    } else if (remain == 2) {
+      int v = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+      builder.append(ALPHABET[v >>> 18]).append(ALPHABET[(v >>> 12) & 63]).append(ALPHABET[(v >>> 6) & 63]);
+    }
+    return builder.toString();
+  }
+
+  private static byte[] unbase64(String s, int offset) {
+    int chars = s.length() - offset;
+    if (chars % 4 == 1)
+      throw new IllegalArgumentException("bad base64 length");
+    byte[] out = new byte[chars * 3 / 4];
+    int o = 0;
+    int bits = 0;
+    int value = 0;
+    for (int i = offset; i < s.length(); i++) {
+      char c = s.charAt(i);
+      int d = c < 128 ? REVERSE[c] : -1;
+      if (d < 0)
+        throw new IllegalArgumentException("bad base64 char " + c);
+      value = (value << 6 | d) & 0xffff;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        out[o++] = (byte) (value >>> bits);
+      }
+    }
+    return o == out.length ? out : Arrays.copyOf(out, o);
+  }
+
+  private static final class ByteWriter {
+    byte[] buffer = new byte[256];
+    int size;
+
+    void ensure(int extra) {
+      if (size + extra > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+    }
+
+    void varint(int value) {
+      ensure(5);
+      while ((value & ~0x7f) != 0) {
+        buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    void fixed64(long value) {
+      ensure(8);
+      for (int i = 0; i < 8; i++)
+        buffer[size++] = (byte) (value >>> (i * 8));
+    }
+
+    void string(String s) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      varint(bytes.length);
+      bytes(bytes, 0, bytes.length);
+    }
+
+    void bytes(byte[] src, int offset, int length) {
+      ensure(length);
+      System.arraycopy(src, offset, buffer, size, length);
+      size += length;
+    }
+  }
+
+  private static final class ByteReader {
+    final byte[] data;
+    int position;
+
+    ByteReader(byte[] data) {
+      this.data = data;
+    }
+
+    int varint() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        if (position >= data.length)
+          throw new IllegalArgumentException("truncated data");
+        byte b = data[position++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          if (value < 0)
+            throw new IllegalArgumentException("bad varint");
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("bad varint");
+    }
+
+    /**
+     * 读取个数或长度，每项至少占一个字节，超过剩余字节数的一定是损坏的数据
+     */
+    int count() {
+      int value = varint();
+      if (value > data.length - position)
+        throw new IllegalArgumentException("bad count " + value);
+      return value;
+    }
+
+    long fixed64() {
+      if (position + 8 > data.length)
+        throw new IllegalArgumentException("truncated data");
+      long value = 0;
+      for (int i = 0; i < 8; i++)
+        value |= (data[position++] & 0xffL) << (i * 8);
+      return value;
+    }
+
+    String string() {
+      int length = count();
+      String s = new String(data, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return s;
+    }
+
+    int index(int size) {
+      int value = varint();
+      if (value >= size)
+        throw new IllegalArgumentException("bad index " + value);
+      return value;
+    }
+
+    void bytes(byte[] dst, int offset, int length) {
+      if (position + length > data.length)
+        throw new IllegalArgumentException("truncated data");
+      System.arraycopy(data, position, dst, offset, length);
+      position += length;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定长的耗时记录环，基于System.nanoTime，记录时只写数组不分配对象，写满后覆盖最旧的记录。
+ * 并发写入同一槽位时可能得到不完整的记录，只用于统计启动耗时，不影响正确性
+ */
+public final class SpanRing {
+
+  /**
+   * system_server中的插件收到该命令广播时把记录输出到日志；
+   * 命令不走plugin_params，插件解析参数时遇到它会忽略并保留现有规则
+   */
+  public static final String DUMP_COMMAND = "dump";
+
+  /**
+   * 插件加载、规则解析、hook安装等启动阶段的耗时
+   */
+  public static final SpanRing STARTUP = new SpanRing(128);
+
+  private final long origin = System.nanoTime();
+  private final String[] names;
+  private final long[] begins;
+  private final long[] durations;
+  private final int mask;
+  private final AtomicLong next = new AtomicLong();
+
+  public SpanRing(int capacity) {
+    int size = 1;
+    while (size < capacity)
+      size <<= 1;
+    names = new String[size];
+    begins = new long[size];
+    durations = new long[size];
+    mask = size - 1;
+  }
+
+  public static long begin() {
+    return System.nanoTime();
+  }
+
+  /**
+   * @param begin {@link #begin()}的返回值
+   */
+  public void end(String name, long begin) {
+    long duration = System.nanoTime() - begin;
+    int i = (int) next.getAndIncrement() & mask;
+    begins[i] = begin;
+    durations[i] = duration;
+    names[i] = name;
+  }
+
+  /**
+   * 按记录顺序输出，每行"名称 开始时间 耗时"，开始时间相对于本对象创建，单位微秒
+   */
+  public String dump() {
+    long count = next.get();
+    long first = Math.max(0, count - names.length);
+    StringBuilder builder = new StringBuilder();
+    builder.append("spans ").append(count - first).append('/').append(count).append('\n');
+    for (long n = first; n < count; n++) {
+      int i = (int) n & mask;
+      String name = names[i];
+      if (name == null)
+        continue;
+      builder.append(name)
+          .append(" +").append((begins[i] - origin) / 1000).append("us")
+          .append(' ').append(durations[i] / 1000).append("us\n");
+    }
+    return builder.toString();
+  }
+}
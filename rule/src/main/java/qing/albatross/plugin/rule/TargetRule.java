@@ -0,0 +1,124 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个调用方的隐藏规则。
+ * 解析时已解析出appId的包按appId位图判断，未安装或共享uid的包保留按包名判断
+ */
+public final class TargetRule implements PackageMatcher {
+
+  public final PackageSet packages;
+  public final AppIdSet appIds;
+  public final PackageSet unresolved;
+  /**
+   * 构建时的条目，与entryAppIds一一对应，用于派生{@link #without}
+   */
+  private final List<String> entryNames;
+  final int[] entryAppIds;
+  private final String self;
+
+  private TargetRule(Builder builder) {
+    self = builder.self;
+    packages = PackageSet.of(builder.packages, self);
+    appIds = AppIdSet.of(builder.entryAppIds, builder.packages.size());
+    unresolved = PackageSet.of(builder.unresolved, self);
+    entryNames = builder.packages;
+    entryAppIds = Arrays.copyOf(builder.entryAppIds, builder.packages.size());
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return packages.isEmpty();
+  }
+
+  @Override
+  public boolean matches(String packageName, int uid) {
+    if (uid < 0)
+      return packages.contains(packageName);
+    return matchesAppId(AppIdSet.appId(uid), packageName);
+  }
+
+  /**
+   * @param packageName appId未命中时按包名判断未解析的规则，可为null
+   */
+  public boolean matchesAppId(int appId, String packageName) {
+    if (appIds.contains(appId))
+      return true;
+    return !unresolved.isEmpty() && unresolved.contains(packageName);
+  }
+
+  /**
+   * 去掉解析为该appId的条目，调用方不会被自己的规则隐藏
+   *
+   * @return 不包含该appId时返回自身
+   */
+  public TargetRule without(int appId) {
+    if (!appIds.contains(appId))
+      return this;
+    Builder builder = new Builder().self(self);
+    for (int i = 0; i < entryAppIds.length; i++) {
+      if (entryAppIds[i] != appId)
+        builder.add(entryNames.get(i), entryAppIds[i]);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public String toString() {
+    return packages.toString();
+  }
+
+  public static final class Builder {
+    private final List<String> packages = new ArrayList<>();
+    private final List<String> unresolved = new ArrayList<>();
+    /**
+     * 与packages一一对应，未解析的为-1
+     */
+    private int[] entryAppIds = new int[8];
+    private String self;
+
+    /**
+     * 调用方自己的包名，通配规则不会匹配它，与应用内插件的规则一致
+     */
+    public Builder self(String packageName) {
+      self = packageName;
+      return this;
+    }
+
+    /**
+     * @param appId 解析不到或不能按appId判断时传-1
+     */
+    public Builder add(String packageName, int appId) {
+      int index = packages.size();
+      if (index == entryAppIds.length)
+        entryAppIds = Arrays.copyOf(entryAppIds, index * 2);
+      entryAppIds[index] = appId < 0 ? -1 : appId;
+      packages.add(packageName);
+      if (appId < 0)
+        unresolved.add(packageName);
+      return this;
+    }
+
+    public TargetRule build() {
+      return new TargetRule(this);
+    }
+  }
+}
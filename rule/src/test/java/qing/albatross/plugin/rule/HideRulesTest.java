@@ -0,0 +1,147 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HideRulesTest {
+
+  private static final int MAGISK = 10100;
+  private static final int LSPOSED = 10101;
+  private static final int BANK = 10200;
+  private static final int TRUSTED = 10300;
+  private static final int OTHER = 10400;
+
+  private static TargetRule global() {
+    return new TargetRule.Builder()
+        .add("com.topjohnwu.magisk", MAGISK)
+        .add("org.lsposed.manager", LSPOSED)
+        .build();
+  }
+
+  private static HideRules rules() {
+    TargetRule bank = new TargetRule.Builder()
+        .add("com.topjohnwu.magisk", MAGISK)
+        .add("org.lsposed.manager", LSPOSED)
+        .add("com.other", OTHER)
+        .add("com.bank", BANK)
+        .build();
+    return new HideRules.Builder(1)
+        .global(global())
+        .exempt(AppIdSet.of(new int[]{TRUSTED}, 1))
+        .put(BANK, bank)
+        .build();
+  }
+
+  @Test
+  public void globalAppliesToOtherCallers() {
+    TargetRule rule = rules().get(OTHER);
+    assertNotNull(rule);
+    assertTrue(rule.matchesAppId(MAGISK, null));
+    assertTrue(rule.matchesAppId(LSPOSED, null));
+  }
+
+  @Test
+  public void globallyHiddenAppSeesItselfButNotOthers() {
+    TargetRule rule = rules().get(MAGISK);
+    assertNotNull(rule);
+    assertFalse(rule.matchesAppId(MAGISK, "com.topjohnwu.magisk"));
+    assertTrue(rule.matchesAppId(LSPOSED, null));
+  }
+
+  @Test
+  public void onlyHiddenAppGetsNoRule() {
+    TargetRule global = new TargetRule.Builder().add("com.topjohnwu.magisk", MAGISK).build();
+    HideRules rules = new HideRules.Builder(1).global(global).build();
+    assertNull(rules.get(MAGISK));
+    assertNotNull(rules.get(OTHER));
+  }
+
+  @Test
+  public void exemptAndSystemCallersSkipGlobal() {
+    HideRules rules = rules();
+    assertNull(rules.get(TRUSTED));
+    assertNull(rules.get(1000));
+  }
+
+  @Test
+  public void targetRuleDoesNotHideCaller() {
+    TargetRule bank = rules().get(BANK);
+    assertTrue(bank.matchesAppId(OTHER, null));
+    assertFalse(bank.matchesAppId(BANK, "com.bank"));
+  }
+
+  @Test
+  public void secondaryUserUsesSameAppIdRules() {
+    HideRules rules = rules();
+    TargetRule rule = rules.get(10 * AppIdSet.PER_USER_RANGE + MAGISK);
+    assertNotNull(rule);
+    assertFalse(rule.matchesAppId(MAGISK, null));
+  }
+
+  @Test
+  public void emptyOverrideDisablesRulesForOneUser() {
+    HideRules rules = new HideRules.Builder(1)
+        .put(BANK, new TargetRule.Builder().add("com.other", OTHER).build())
+        .putOverride(10 * AppIdSet.PER_USER_RANGE + BANK, new TargetRule.Builder().build())
+        .build();
+    assertNotNull(rules.get(BANK));
+    assertNull(rules.get(10 * AppIdSet.PER_USER_RANGE + BANK));
+  }
+
+  @Test
+  public void globalPatternDoesNotHideCallerItself() {
+    // 前缀规则和共享uid的包解析不出appId，构建时去不掉调用方自身
+    int magisk = 10123;
+    int shared = 10050;
+    TargetRule global = new TargetRule.Builder()
+        .add("com.topjohnwu.*", -1)
+        .add("com.shared.plugin", -1)
+        .build();
+    HideRules rules = new HideRules.Builder(1).global(global).build();
+
+    TargetRule rule = rules.get(magisk);
+    assertNotNull(rule);
+    assertFalse(rule.matches("com.topjohnwu.magisk", magisk, magisk));
+    assertFalse(rule.matches("com.topjohnwu.magisk", 10 * AppIdSet.PER_USER_RANGE + magisk, magisk));
+    assertTrue(rule.matches("com.topjohnwu.magisk", magisk, OTHER));
+    assertTrue(rule.matches("com.topjohnwu.other", MAGISK, magisk));
+
+    TargetRule sharedRule = rules.get(shared);
+    assertFalse(sharedRule.matches("com.shared.plugin", shared, shared));
+    assertTrue(sharedRule.matches("com.shared.plugin", shared, OTHER));
+    assertTrue(sharedRule.matches("com.shared.plugin", -1, shared));
+  }
+
+  @Test
+  public void targetPatternDoesNotMatchTargetPackage() {
+    TargetRule rule = new TargetRule.Builder()
+        .self("com.topjohnwu.magisk")
+        .add("com.topjohnwu.*", -1)
+        .add("com.bank", BANK)
+        .build();
+    assertFalse(rule.matches("com.topjohnwu.magisk", -1));
+    assertTrue(rule.matches("com.topjohnwu.other", -1));
+    TargetRule without = rule.without(BANK);
+    assertFalse(without.matches("com.topjohnwu.magisk", -1));
+    assertTrue(without.matches("com.topjohnwu.other", -1));
+  }
+}
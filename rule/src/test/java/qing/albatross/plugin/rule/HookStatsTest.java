@@ -0,0 +1,82 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HookStatsTest {
+
+  @After
+  public void disable() {
+    HookStats.setEnabled(false);
+  }
+
+  @Test
+  public void bucketLimitCoversValue() {
+    long[] samples = {0, 1, 3, 4, 5, 7, 8, 100, 1000, 123456789, 1L << 40, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+    for (long nanos : samples) {
+      long limit = HookStats.bucketLimit(HookStats.bucket(nanos));
+      assertTrue(nanos + " < " + limit, limit > nanos || limit == Long.MAX_VALUE);
+    }
+  }
+
+  @Test
+  public void bucketLimitNeverOverflows() {
+    long previous = 0;
+    for (int bucket = 0; bucket <= HookStats.bucket(Long.MAX_VALUE); bucket++) {
+      // 4ns起直接进入指数为2的段，4到7号格不会出现
+      if (bucket == 4)
+        bucket = HookStats.bucket(4);
+      long limit = HookStats.bucketLimit(bucket);
+      assertTrue("bucket " + bucket, limit >= previous);
+      previous = limit;
+    }
+  }
+
+  @Test
+  public void disabledRecordsNothing() {
+    HookStats stats = HookStats.create("test.disabled");
+    long begin = HookStats.begin();
+    assertEquals(0, begin);
+    stats.end(10100, begin);
+    assertTrue(HookStats.dumpAll(1).contains("test.disabled calls=0"));
+  }
+
+  @Test
+  public void enabledCountsUidsAcrossThreads() throws InterruptedException {
+    HookStats.setEnabled(true);
+    HookStats stats = HookStats.create("test.enabled");
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++)
+          stats.end(10100, HookStats.begin());
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    String dump = HookStats.dumpAll(1);
+    assertTrue(dump, dump.contains("test.enabled calls=8000"));
+    assertTrue(dump, dump.contains("uid 10100 calls=8000"));
+    assertFalse(dump, dump.contains("max<-"));
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+public class ListFilterTest {
+
+  private static final ListFilter.PackageGetter<String> NAME = object -> object;
+
+  private static final PackageSet HIDDEN = PackageSet.of(Arrays.asList("com.topjohnwu.magisk", "org.lsposed.*"));
+
+  private static List<String> input() {
+    return Arrays.asList("com.a", "com.topjohnwu.magisk", "com.b", "org.lsposed.manager", "com.c", "com.topjohnwu.magisk");
+  }
+
+  @Test
+  public void compactsArrayList() {
+    List<String> list = new ArrayList<>(input());
+    assertEquals(3, ListFilter.filter(list, HIDDEN, NAME));
+    assertEquals(Arrays.asList("com.a", "com.b", "com.c"), list);
+  }
+
+  @Test
+  public void filtersLinkedList() {
+    List<String> list = new LinkedList<>(input());
+    assertEquals(3, ListFilter.filter(list, HIDDEN, NAME));
+    assertEquals(Arrays.asList("com.a", "com.b", "com.c"), list);
+  }
+
+  @Test
+  public void keepsNullElements() {
+    List<String> list = new ArrayList<>(Arrays.asList(null, "com.topjohnwu.magisk", "com.a", null));
+    assertEquals(1, ListFilter.filter(list, HIDDEN, NAME));
+    assertEquals(Arrays.asList(null, "com.a", null), list);
+  }
+
+  @Test
+  public void allHidden() {
+    List<String> list = new ArrayList<>(Arrays.asList("com.topjohnwu.magisk", "org.lsposed.manager", "org.lsposed.daemon"));
+    assertEquals(3, ListFilter.filter(list, HIDDEN, NAME));
+    assertEquals(Collections.emptyList(), list);
+    List<String> linked = new LinkedList<>(Arrays.asList("com.topjohnwu.magisk", "org.lsposed.manager"));
+    assertEquals(2, ListFilter.filter(linked, HIDDEN, NAME));
+    assertEquals(Collections.emptyList(), linked);
+  }
+
+  @Test
+  public void noneHidden() {
+    List<String> list = new ArrayList<>(Arrays.asList("com.a", "com.b"));
+    assertEquals(0, ListFilter.filter(list, HIDDEN, NAME));
+    assertEquals(Arrays.asList("com.a", "com.b"), list);
+  }
+
+  @Test
+  public void nullAndEmptyInput() {
+    assertEquals(0, ListFilter.filter(null, HIDDEN, NAME));
+    assertEquals(0, ListFilter.filter(new ArrayList<>(), HIDDEN, NAME));
+    List<String> list = new ArrayList<>(input());
+    assertEquals(0, ListFilter.filter(list, null, NAME));
+    assertEquals(0, ListFilter.filter(list, PackageSet.EMPTY, NAME));
+    assertEquals(input(), list);
+  }
+
+  /**
+   * 记录判断次数的matcher
+   */
+  private static final class CountingMatcher implements PackageMatcher {
+    final PackageMatcher delegate;
+    int calls;
+
+    CountingMatcher(PackageMatcher delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return false;
+    }
+
+    @Override
+    public boolean matches(String packageName, int uid) {
+      calls++;
+      return delegate.matches(packageName, uid);
+    }
+  }
+
+  private static final class Component {
+    final String packageName;
+
+    Component(String packageName) {
+      this.packageName = packageName;
+    }
+  }
+
+  private static final ListFilter.PackageGetter<Component> COMPONENT = object -> object.packageName;
+
+  private static List<Component> components(String... packageNames) {
+    List<Component> list = new ArrayList<>();
+    for (String pkg : packageNames)
+      list.add(new Component(pkg));
+    return list;
+  }
+
+  @Test
+  public void runOfSamePackageObjectIsDecidedOnce() {
+    String magisk = "com.topjohnwu.magisk";
+    String app = "com.a";
+    for (List<Component> list : Arrays.asList(
+        components(magisk, magisk, magisk, app, app, magisk),
+        new LinkedList<>(components(magisk, magisk, magisk, app, app, magisk)))) {
+      CountingMatcher matcher = new CountingMatcher(HIDDEN);
+      assertEquals(4, ListFilter.filter(list, matcher, COMPONENT));
+      assertEquals(3, matcher.calls);
+      assertEquals(2, list.size());
+      assertEquals(app, list.get(0).packageName);
+      assertEquals(app, list.get(1).packageName);
+    }
+  }
+
+  @Test
+  public void equalButDistinctStringsAreDecidedSeparately() {
+    String first = new String("com.topjohnwu.magisk");
+    String second = new String("com.topjohnwu.magisk");
+    CountingMatcher matcher = new CountingMatcher(HIDDEN);
+    List<Component> list = components(first, second);
+    assertEquals(2, ListFilter.filter(list, matcher, COMPONENT));
+    assertEquals(2, matcher.calls);
+  }
+
+  @Test
+  public void nullPackageNamesAreNeverReused() {
+    CountingMatcher matcher = new CountingMatcher(HIDDEN);
+    List<Component> list = components(null, null, "com.a");
+    assertEquals(0, ListFilter.filter(list, matcher, COMPONENT));
+    assertEquals(3, matcher.calls);
+  }
+
+  @Test
+  public void reuseDoesNotCrossFilterCalls() {
+    String magisk = "com.topjohnwu.magisk";
+    CountingMatcher matcher = new CountingMatcher(HIDDEN);
+    ListFilter.filter(components(magisk), matcher, COMPONENT);
+    ListFilter.filter(components(magisk), matcher, COMPONENT);
+    assertEquals(2, matcher.calls);
+  }
+}
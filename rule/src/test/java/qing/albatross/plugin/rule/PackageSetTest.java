@@ -0,0 +1,71 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class PackageSetTest {
+
+  @Test
+  public void exactAndPatternEntries() {
+    PackageSet set = PackageSet.of(Arrays.asList("org.lsposed.manager", "com.topjohnwu.*"));
+    assertTrue(set.contains("org.lsposed.manager"));
+    assertTrue(set.contains("com.topjohnwu.magisk"));
+    assertFalse(set.contains("com.topjohnwu"));
+    assertFalse(set.contains("org.lsposed"));
+  }
+
+  @Test
+  public void patternNeverMatchesExcept() {
+    PackageSet set = PackageSet.of(Arrays.asList("com.topjohnwu.*"), "com.topjohnwu.self");
+    assertTrue(set.contains("com.topjohnwu.magisk"));
+    assertFalse(set.contains("com.topjohnwu.self"));
+  }
+
+  @Test
+  public void validEntries() {
+    assertTrue(PackageSet.isValidEntry("com.topjohnwu.magisk"));
+    assertTrue(PackageSet.isValidEntry("com.topjohnwu.*"));
+    assertTrue(PackageSet.isValidEntry("com.topjohnwu*"));
+    assertTrue(PackageSet.isValidEntry("org.my_app2"));
+  }
+
+  @Test
+  public void invalidEntries() {
+    assertFalse(PackageSet.isValidEntry(""));
+    assertFalse(PackageSet.isValidEntry("*"));
+    assertFalse(PackageSet.isValidEntry(".*"));
+    assertFalse(PackageSet.isValidEntry("com.*.magisk"));
+    assertFalse(PackageSet.isValidEntry("com.topjohnwu.**"));
+    assertFalse(PackageSet.isValidEntry("com.bank@10"));
+    assertFalse(PackageSet.isValidEntry("com bank"));
+  }
+
+  @Test
+  public void emptyPrefixesAreDropped() {
+    PackageSet set = PackageSet.of(Arrays.asList("*", ".*", "com.bank"));
+    assertEquals(1, set.size());
+    assertFalse(set.contains("com.topjohnwu.magisk"));
+    assertFalse(set.contains(".hidden"));
+    assertTrue(set.contains("com.bank"));
+  }
+}
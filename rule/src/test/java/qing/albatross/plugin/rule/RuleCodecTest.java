@@ -0,0 +1,232 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.plugin.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RuleCodecTest {
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, List<String>> rules(Object... targetsAndPackages) {
+    Map<String, List<String>> rules = new LinkedHashMap<>();
+    for (int i = 0; i < targetsAndPackages.length; i += 2)
+      rules.put((String) targetsAndPackages[i], (List<String>) targetsAndPackages[i + 1]);
+    return rules;
+  }
+
+  @Test
+  public void roundTrip() {
+    Map<String, List<String>> rules = rules(
+        "com.bank.app", Arrays.asList("com.topjohnwu.magisk", "org.lsposed.manager"),
+        "com.pay.app@10", Arrays.asList("org.lsposed.manager"),
+        "*", Arrays.asList("com.topjohnwu.*"),
+        "!", Collections.emptyList());
+    String encoded = RuleCodec.encode(rules);
+    assertTrue(RuleCodec.isCompact(encoded));
+    assertEquals(rules, RuleCodec.decode(encoded));
+  }
+
+  @Test
+  public void roundTripSortsAndRemovesDuplicates() {
+    Map<String, List<String>> decoded = RuleCodec.decode(RuleCodec.encode(rules(
+        "com.bank.app", Arrays.asList("b.pkg", "a.pkg", "b.pkg", "a.pkg"))));
+    assertEquals(rules("com.bank.app", Arrays.asList("a.pkg", "b.pkg")), decoded);
+  }
+
+  @Test
+  public void roundTripKeepsTargetOrder() {
+    Map<String, List<String>> rules = rules(
+        "z.target", Arrays.asList("a.pkg"),
+        "a.target", Arrays.asList("z.pkg"));
+    assertEquals(new ArrayList<>(rules.keySet()),
+        new ArrayList<>(RuleCodec.decode(RuleCodec.encode(rules)).keySet()));
+  }
+
+  @Test
+  public void roundTripNonAscii() {
+    Map<String, List<String>> rules = rules(
+        "com.例子.应用", Arrays.asList("com.ü.ß", "com.例子.隐藏", "com.例子.隐藏二"));
+    assertEquals(rules, RuleCodec.decode(RuleCodec.encode(rules)));
+  }
+
+  @Test
+  public void emptyRules() {
+    Map<String, List<String>> empty = new LinkedHashMap<>();
+    assertEquals(empty, RuleCodec.decode(RuleCodec.encode(empty)));
+    assertEquals(empty, RuleCodec.decode(null));
+    assertEquals(empty, RuleCodec.decode(""));
+  }
+
+  @Test
+  public void legacyFormat() {
+    assertEquals(rules(
+        "com.bank.app", Arrays.asList("a.pkg", "b.pkg"),
+        "com.pay.app", Arrays.asList("c.pkg")),
+        RuleCodec.decode("com.bank.app:a.pkg,b.pkg|com.pay.app:c.pkg"));
+  }
+
+  @Test
+  public void legacyEmptyPackages() {
+    assertEquals(rules("pkg", Collections.emptyList(), "other", Arrays.asList("a", "b")),
+        RuleCodec.decode("pkg:|other:a,,b,"));
+  }
+
+  @Test
+  public void legacySkipsMalformedEntries() {
+    assertEquals(rules("ok", Arrays.asList("a")),
+        RuleCodec.decode("nocolon|:a|x:y:z||ok:a"));
+  }
+
+  @Test
+  public void legacyRoundTrip() {
+    Map<String, List<String>> rules = rules(
+        "com.bank.app", Arrays.asList("a.pkg", "b.pkg"),
+        "com.pay.app@10", Arrays.asList("c.pkg"));
+    assertEquals(rules, RuleCodec.decodeLegacy(RuleCodec.encodeLegacy(rules)));
+  }
+
+  private static void assertCorrupt(String encoded) {
+    try {
+      RuleCodec.decode(encoded);
+      fail("decoded corrupt input " + encoded);
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void corruptInput() {
+    // 超大的个数
+    assertCorrupt("$1_____wB");
+    // 非法字符和长度
+    assertCorrupt("$1!!!!");
+    assertCorrupt("$1A");
+    // 截断
+    String encoded = RuleCodec.encode(rules("com.bank.app", Arrays.asList("a.pkg", "b.pkg")));
+    for (int length = RuleCodec.PREFIX_V1.length(); length < encoded.length() - 1; length++) {
+      String truncated = encoded.substring(0, length);
+      if ((length - RuleCodec.PREFIX_V1.length()) % 4 != 1)
+        assertCorrupt(truncated);
+    }
+  }
+
+  @Test
+  public void corruptInputNeverThrowsOtherErrors() {
+    String encoded = RuleCodec.encode(rules(
+        "com.bank.app", Arrays.asList("a.pkg", "b.pkg"),
+        "com.pay.app", Arrays.asList("c.pkg")));
+    char[] chars = encoded.toCharArray();
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = RuleCodec.PREFIX_V1.length(); i < chars.length; i++) {
+      char original = chars[i];
+      for (int j = 0; j < alphabet.length(); j++) {
+        chars[i] = alphabet.charAt(j);
+        try {
+          RuleCodec.decode(new String(chars));
+        } catch (IllegalArgumentException expected) {
+        }
+      }
+      chars[i] = original;
+    }
+  }
+
+  @Test
+  public void smallerThanLegacy() {
+    Map<String, List<String>> rules = new LinkedHashMap<>();
+    List<String> hidden = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+      hidden.add("com.example.hidden.app" + i);
+    for (int i = 0; i < 30; i++)
+      rules.put("com.example.target.app" + i, hidden.subList(0, 5 + i % 15));
+    int compact = RuleCodec.encode(rules).length();
+    int legacy = RuleCodec.encodeLegacy(rules).length();
+    assertTrue("compact " + compact + " legacy " + legacy, compact * 4 < legacy);
+  }
+
+  @Test
+  public void deltaCarriesOnlyChangedTargets() {
+    Map<String, List<String>> base = rules(
+        "com.bank.app", Arrays.asList("com.topjohnwu.magisk"),
+        "com.pay.app", Arrays.asList("org.lsposed.manager"),
+        "com.old.app", Arrays.asList("a.pkg"));
+    Map<String, List<String>> next = rules(
+        "com.bank.app", Arrays.asList("com.topjohnwu.magisk"),
+        "com.pay.app", Arrays.asList("z.pkg", "org.lsposed.manager", "z.pkg"),
+        "com.new.app", Collections.emptyList());
+    String encoded = RuleCodec.encodeDelta(base, next);
+    assertTrue(RuleCodec.isDelta(encoded));
+    RuleCodec.Delta delta = RuleCodec.decodeDelta(encoded);
+    assertEquals(RuleCodec.fingerprint(base), delta.baseFingerprint);
+    assertEquals(RuleCodec.fingerprint(next), delta.fingerprint);
+    Map<String, List<String>> changes = new LinkedHashMap<>();
+    changes.put("com.pay.app", Arrays.asList("org.lsposed.manager", "z.pkg"));
+    changes.put("com.new.app", Collections.emptyList());
+    changes.put("com.old.app", null);
+    assertEquals(changes, delta.changes);
+    assertEquals(RuleCodec.encode(next), delta.full);
+  }
+
+  @Test
+  public void persistedDeltaDecodesToFullRules() {
+    Map<String, List<String>> next = rules("com.bank.app", Arrays.asList("a.pkg", "b.pkg"));
+    String encoded = RuleCodec.encodeDelta(rules("com.other", Arrays.asList("c.pkg")), next);
+    assertEquals(next, RuleCodec.decode(encoded));
+  }
+
+  @Test
+  public void fingerprintUpdatesIncrementally() {
+    Map<String, List<String>> base = rules(
+        "a", Arrays.asList("x", "y"),
+        "b", Arrays.asList("z"));
+    long fingerprint = RuleCodec.fingerprint(base);
+    fingerprint -= RuleCodec.fingerprint("b", base.get("b"));
+    fingerprint += RuleCodec.fingerprint("b", Arrays.asList("z", "w"));
+    fingerprint += RuleCodec.fingerprint("c", Collections.emptyList());
+    assertEquals(RuleCodec.fingerprint(rules(
+        "c", Collections.emptyList(),
+        "b", Arrays.asList("w", "z", "w"),
+        "a", Arrays.asList("y", "x"))), fingerprint);
+    assertTrue(RuleCodec.fingerprint(base) != RuleCodec.fingerprint(rules("a", Arrays.asList("x", "y"))));
+  }
+
+  @Test
+  public void corruptDeltaIsRejected() {
+    String encoded = RuleCodec.encodeDelta(rules("a", Arrays.asList("x")), rules("a", Arrays.asList("y")));
+    String[] corrupt = {
+        RuleCodec.PREFIX_DELTA,
+        encoded.substring(0, encoded.indexOf('.')),
+        encoded.substring(0, encoded.indexOf('.') + 1) + "pkg:a",
+        RuleCodec.PREFIX_DELTA + "AAAA." + RuleCodec.encode(rules()),
+    };
+    for (String s : corrupt) {
+      try {
+        RuleCodec.decodeDelta(s);
+        fail("accepted " + s);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+}
@@ -19,4 +19,6 @@ dependencyResolutionManagement {
 
 include(":inapp")
 include(":insystem")
+include(":rule")
+include(":applist")
 